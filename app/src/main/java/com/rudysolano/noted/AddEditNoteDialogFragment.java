@@ -1,7 +1,10 @@
 package com.rudysolano.noted;
 
 import android.app.Dialog;
+import android.content.DialogInterface;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.Button;
@@ -16,17 +19,25 @@ import androidx.lifecycle.ViewModelProvider;
 
 import io.reactivex.CompletableObserver;
 import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
 
 /**
  * A dialog fragment used to add a new note or edit an existing note. There are two helper methods
- * used to create a new instance of this fragment: newInstance() and
- * newInstance(int id, String noteText). The former is used to create a fragment instance in
- * "new note" mode. The latter is used for "edit" mode and the arguments supplied to this method
- * contain information about the note being edited. In onCreate(), the fragment decides whether to
- * operate in "edit" or "new note" mode based on whether arguments were supplied to the fragment. In
- * edit mode, this information is displayed in the fragment's EditText field in onCreateDialog().
+ * used to create a new instance of this fragment: newInstance() and newInstance(int id). The
+ * former is used to create a fragment instance in "new note" mode. The latter is used for "edit"
+ * mode and the argument supplied to this method is the id of the note being edited. Only the id
+ * is stored in the fragment's arguments, so the arguments stay small however long the note is. In
+ * onCreate(), the fragment decides whether to operate in "edit" or "new note" mode based on
+ * whether arguments were supplied to the fragment. In edit mode, the note is loaded in the
+ * background and displayed in the fragment's EditText field, and the Save button is enabled once
+ * it is loaded.
+ * While the user types, the text is saved as a draft of the note (see {@link NoteDraft}), so it
+ * is not lost if the process is killed. If a draft exists when the dialog is opened, its text is
+ * shown instead of the note's. The draft is deleted once the note is saved, or the edit is
+ * cancelled.
  * When the user attempts to save either a new note or an edited note via the Save button, the
  * user entry is validated. If the entry is invalid, an error is displayed. Otherwise, the entry
  * is saved using a shared ViewModel. Note that a listener is constructed to process a Save
@@ -41,12 +52,22 @@ public class AddEditNoteDialogFragment extends DialogFragment {
     private static final String NEW_NOTE_MODE = "newNoteMode";
     //Keys to be used in Bundle to store data that was passed in (used in edit mode).
     private static final String KEY_NOTE_ID = "keyNoteId";
-    private static final String KEY_NOTE_TEXT = "keyNoteText";
+    //Key used in the saved state to remember that the note (or its draft) was loaded into the
+    // EditText, which restores its own text.
+    private static final String KEY_NOTE_LOADED = "keyNoteLoaded";
 
     private int editNoteId;
-    private String editNoteText;
+    //The id the draft of the note is saved under
+    private int draftNoteId = NoteDraft.NEW_NOTE_ID;
+    private boolean noteLoaded;
     private String mode;
     private EditText editText;
+    //Reused for every validation of the user entry.
+    private final HashtagScanner.Result scanResult = new HashtagScanner.Result();
+    private final CompositeDisposable disposables = new CompositeDisposable();
+    //Emits the text of the EditText every time it changes, for the draft autosave
+    private final PublishSubject<String> draftTexts = PublishSubject.create();
+    private Disposable autosave;
 
     /**
      * Required empty constructor.
@@ -67,19 +88,17 @@ public class AddEditNoteDialogFragment extends DialogFragment {
 
     /**
      * Helper method used to create a new instance of this fragment in "edit" mode. This fragment's
-     * empty constructor is called, and the fragment is supplied with arguments, which will contain
-     * information about the note being edited.
+     * empty constructor is called, and the fragment is supplied with the id of the note being
+     * edited. The note itself is loaded by the fragment.
      *
-     * @param id       the note id for the note being edited
-     * @param noteText the note text for the note being edited
+     * @param id the note id for the note being edited
      * @return a new instance of this fragment
      */
-    public static AddEditNoteDialogFragment newInstance(@NonNull int id, @NonNull String noteText) {
+    public static AddEditNoteDialogFragment newInstance(int id) {
         AddEditNoteDialogFragment fragment = new AddEditNoteDialogFragment();
-        //Store the note id and text in a Bundle.
+        //Store the note id in a Bundle.
         Bundle args = new Bundle();
         args.putInt(KEY_NOTE_ID, id);
-        args.putString(KEY_NOTE_TEXT, noteText);
         //Supply the Bundle to the fragment.
         fragment.setArguments(args);
         return fragment;
@@ -88,7 +107,7 @@ public class AddEditNoteDialogFragment extends DialogFragment {
     /**
      * Sets the mode variable to indicate whether this fragment is in New Note mode or Edit mode by
      * checking if arguments were supplied. If arguments were supplied, fragment is in Edit mode,
-     * and the id and text for the note being edited are stored in variables.
+     * and the id for the note being edited is stored in a variable.
      *
      * @param savedInstanceState the state used when recreating the fragment
      */
@@ -103,10 +122,13 @@ public class AddEditNoteDialogFragment extends DialogFragment {
             //Fragment is in Edit mode.
             mode = EDIT_MODE;
 
-            //Get the note data from the bundle.
+            //Get the note id from the bundle.
             editNoteId = getArguments().getInt(KEY_NOTE_ID);
-            editNoteText = getArguments().getString(KEY_NOTE_TEXT);
+            draftNoteId = editNoteId;
         }
+
+        noteLoaded = savedInstanceState != null
+                && savedInstanceState.getBoolean(KEY_NOTE_LOADED);
     }
 
     /**
@@ -124,13 +146,36 @@ public class AddEditNoteDialogFragment extends DialogFragment {
         View layout = inflater.inflate(R.layout.fragment_add_edit_note_dialog, null,
                 false);
         editText = layout.findViewById(R.id.edit_text);
+        editText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                //do nothing
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                //do nothing
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                draftTexts.onNext(s.toString());
+            }
+        });
 
         //Create and configure an alert dialog to allow user to edit/create new note.
         AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
         builder.setView(layout);
+        //The EditText restores its own text when the dialog is recreated, so the note and its
+        // draft are only loaded the first time.
+        if (noteLoaded) {
+            startAutosave();
+        } else {
+            loadNote();
+        }
+
         //Other configurations based on current mode.
         if (mode.equals(EDIT_MODE)) {
-            editText.setText(editNoteText);
             builder.setTitle(R.string.edit_note_title);
             builder.setMessage(R.string.edit_note_explanation);
         } else {
@@ -138,18 +183,136 @@ public class AddEditNoteDialogFragment extends DialogFragment {
             builder.setMessage(R.string.add_new_note_explanation);
         }
 
-        //Set dialog buttons (Save and Cancel). Both button listeners are set to null. Nothing needs
-        // to be done upon negative button click, so setting it to null is ok. For positive button,
-        // click listener will be placed in onResume() to prevent dialog from automatically
-        // dismissing upon an event (For example, if user presses Save with an invalid entry, the
-        // dialog needs to stay open. If the listener was not set to null here, the dialog would
-        // simply close).
+        //Set dialog buttons (Save and Cancel). The negative button discards the draft. The
+        // positive button listener is set to null. Its click listener will be placed in
+        // onResume() to prevent dialog from automatically dismissing upon an event (For example,
+        // if user presses Save with an invalid entry, the dialog needs to stay open. If the
+        // listener was not set to null here, the dialog would simply close).
         builder.setPositiveButton(R.string.save_button, null);
-        builder.setNegativeButton(R.string.cancel_button, null);
+        builder.setNegativeButton(R.string.cancel_button, (dialog, which) -> discardDraft());
 
         return builder.create();
     }
 
+    /**
+     * Loads the text to show in the background: the draft of the note if there is one, or else
+     * the text of the note being edited. In edit mode, the dialog is closed if the note no longer
+     * exists.
+     */
+    private void loadNote() {
+        NotesViewModel notesViewModel =
+                new ViewModelProvider(requireActivity()).get(NotesViewModel.class);
+
+        if (mode.equals(EDIT_MODE)) {
+            disposables.add(notesViewModel.getNoteById(editNoteId)
+                    .flatMap(note -> notesViewModel.getDraft(editNoteId)
+                            .map(NoteDraft::getText)
+                            .defaultIfEmpty(note.getNoteText()))
+                    .subscribeOn(Schedulers.io())
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(text -> {
+                        editText.setText(text);
+                        onNoteLoaded();
+                    }, throwable -> dismissAllowingStateLoss(), () -> {
+                        Toast.makeText(getActivity(), R.string.error_note_not_found,
+                                Toast.LENGTH_SHORT).show();
+                        discardDraft();
+                        dismissAllowingStateLoss();
+                    }));
+        } else {
+            disposables.add(notesViewModel.getDraft(NoteDraft.NEW_NOTE_ID)
+                    .subscribeOn(Schedulers.io())
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(draft -> {
+                        //Keep what the user may have typed while the draft was loading.
+                        if (editText.length() == 0) {
+                            editText.setText(draft.getText());
+                        }
+                        onNoteLoaded();
+                    }, throwable -> onNoteLoaded(), this::onNoteLoaded));
+        }
+    }
+
+    /**
+     * Called once the text is shown. Enables the Save button and starts saving drafts.
+     */
+    private void onNoteLoaded() {
+        noteLoaded = true;
+        updateSaveButton();
+        startAutosave();
+    }
+
+    /**
+     * Starts saving the text as a draft as the user types (see
+     * {@link NotesViewModel#autosaveDraft}).
+     */
+    private void startAutosave() {
+        NotesViewModel notesViewModel =
+                new ViewModelProvider(requireActivity()).get(NotesViewModel.class);
+
+        autosave = notesViewModel.autosaveDraft(draftNoteId, draftTexts)
+                .subscribe(() -> {
+                    //do nothing
+                }, throwable -> {
+                    //do nothing
+                });
+        disposables.add(autosave);
+    }
+
+    /**
+     * Stops saving drafts, so a draft that is about to be deleted is not saved again.
+     */
+    private void stopAutosave() {
+        if (autosave != null) {
+            disposables.remove(autosave);
+            autosave = null;
+        }
+    }
+
+    /**
+     * Deletes the draft of the note, once the user has abandoned the edit.
+     */
+    private void discardDraft() {
+        stopAutosave();
+        new ViewModelProvider(requireActivity()).get(NotesViewModel.class)
+                .deleteDraft(draftNoteId)
+                .onErrorComplete()
+                .subscribe();
+    }
+
+    /**
+     * Called when the dialog is cancelled with the back button or by touching outside of it.
+     */
+    @Override
+    public void onCancel(@NonNull DialogInterface dialog) {
+        super.onCancel(dialog);
+        discardDraft();
+    }
+
+    /**
+     * Enables the Save button unless the note being edited is still loading.
+     */
+    private void updateSaveButton() {
+        AlertDialog dialog = (AlertDialog) getDialog();
+        //The buttons only exist once the dialog is shown.
+        Button positiveButton = dialog == null ? null : dialog.getButton(Dialog.BUTTON_POSITIVE);
+        if (positiveButton != null) {
+            positiveButton.setEnabled(mode.equals(NEW_NOTE_MODE) || noteLoaded);
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(KEY_NOTE_LOADED, noteLoaded);
+    }
+
+    @Override
+    public void onDestroy() {
+        disposables.clear();
+        super.onDestroy();
+    }
+
     /**
      * Defines the listener for alert dialog's Save button. The listener needs to be defined here so
      * that the dialog is not simply closed when the user presses save. The listener validates the
@@ -166,21 +329,22 @@ public class AddEditNoteDialogFragment extends DialogFragment {
 
         if (dialog != null) {
             Button positiveButton = dialog.getButton(Dialog.BUTTON_POSITIVE);
+            updateSaveButton();
             //Define the positive (save) button listener.
             positiveButton.setOnClickListener((view) -> {
                 boolean closeDialog = false;
 
-                //Get EditText's text and validate it.
+                //Get EditText's text, validate it and find its hashtag.
                 String noteEntry = editText.getText().toString().trim();
-                int entryValidity = ProcessTextUtils.validateEntry(noteEntry);
+                HashtagScanner.scan(noteEntry, scanResult);
+                int entryValidity = scanResult.getValidity();
 
                 //Switch statements handles entry validity cases.
                 switch (entryValidity) {
                     case ProcessTextUtils.ENTRY_VALID:
-                        //Get the hashtag from the note and remove the hash. Will allow the tag
-                        // to be saved in the database without a hash.
-                        String hashTag = ProcessTextUtils.getHashtag(noteEntry);
-                        String tag = ProcessTextUtils.removeHash(hashTag);
+                        //Get the tag (the hashtag without the hash) found by the scan. Will
+                        // allow the tag to be saved in the database without a hash.
+                        String tag = scanResult.getTag(noteEntry);
 
                         //Set the note as a new note, regardless of mode. If dialog is in Edit
                         // mode, the note's id will be set later.
@@ -189,12 +353,17 @@ public class AddEditNoteDialogFragment extends DialogFragment {
                         NotesViewModel notesViewModel =
                                 new ViewModelProvider(getActivity()).get(NotesViewModel.class);
 
+                        //The draft is deleted once the note is written, so stop saving it.
+                        stopAutosave();
+
                         if (mode.equals(EDIT_MODE)) {
                             //Set the new note's id to the id of the note being edited.
                             newNote.setId(editNoteId);
 
                             //Call the shared ViewModel to update the note, using Completable.
-                            notesViewModel.updateNote(newNote).subscribeOn(Schedulers.io())
+                            notesViewModel.updateNote(newNote)
+                                    .andThen(notesViewModel.deleteDraft(draftNoteId))
+                                    .subscribeOn(Schedulers.io())
                                     .observeOn(AndroidSchedulers.mainThread())
                                     .subscribe(new CompletableObserver() {
 
@@ -216,7 +385,9 @@ public class AddEditNoteDialogFragment extends DialogFragment {
                                     });
                         } else {
                             //Call the ViewModel to insert the note, using Completable.
-                            notesViewModel.insertNote(newNote).subscribeOn(Schedulers.io())
+                            notesViewModel.insertNote(newNote)
+                                    .andThen(notesViewModel.deleteDraft(draftNoteId))
+                                    .subscribeOn(Schedulers.io())
                                     .observeOn(AndroidSchedulers.mainThread())
                                     .subscribe(new CompletableObserver() {
 
@@ -248,9 +419,6 @@ public class AddEditNoteDialogFragment extends DialogFragment {
                     case ProcessTextUtils.ENTRY_MISSING_HASH:
                         editText.setError(getString(R.string.error_hashtag_missing));
                         break;
-                    case ProcessTextUtils.ENTRY_HAS_MULTIPLE_HASHES:
-                        editText.setError(getString(R.string.error_multiple_hashtags));
-                        break;
                     case ProcessTextUtils.INVALID_HASHTAG:
                         editText.setError(getString(R.string.error_invalid_hashtag));
                     default:
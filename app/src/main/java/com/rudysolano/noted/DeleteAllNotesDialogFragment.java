@@ -4,21 +4,24 @@ import android.app.AlertDialog;
 import android.app.Dialog;
 import android.content.DialogInterface;
 import android.os.Bundle;
-import android.widget.Toast;
+import android.view.View;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.DialogFragment;
 import androidx.lifecycle.ViewModelProvider;
 
-import io.reactivex.CompletableObserver;
+import com.google.android.material.snackbar.Snackbar;
+
+import io.reactivex.SingleObserver;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 
 /**
  * A dialog fragment used to confirm that all notes should be deleted. If the user confirms, then
- * a shared ViewModel is called to process the delete operation.
+ * a shared ViewModel is called to process the delete operation, which can be undone from a
+ * snackbar shown by the activity.
  */
 public class DeleteAllNotesDialogFragment extends DialogFragment {
 
@@ -44,11 +47,14 @@ public class DeleteAllNotesDialogFragment extends DialogFragment {
                 .setPositiveButton(R.string.delete_button, (dialogInterface, i) -> {
                         NotesViewModel notesViewModel =
                                 new ViewModelProvider(getActivity()).get(NotesViewModel.class);
+                        //Taken now, since the dialog is gone once the notes are deleted. The
+                        // snackbar finds the activity's coordinator layout from it.
+                        View anchor = getActivity().findViewById(R.id.fragment_container);
 
-                        //Call a shared ViewModel to delete all notes, using a Completable.
+                        //Call a shared ViewModel to delete all notes, using a Single.
                         notesViewModel.deleteAllNotes().subscribeOn(Schedulers.io())
                                 .observeOn(AndroidSchedulers.mainThread())
-                                .subscribe(new CompletableObserver() {
+                                .subscribe(new SingleObserver<Long>() {
 
                                     @Override
                                     public void onSubscribe(
@@ -57,9 +63,16 @@ public class DeleteAllNotesDialogFragment extends DialogFragment {
                                     }
 
                                     @Override
-                                    public void onComplete() {
-                                        Toast.makeText(getActivity(), R.string.all_notes_deleted,
-                                                Toast.LENGTH_SHORT).show();
+                                    public void onSuccess(
+                                            @io.reactivex.annotations.NonNull Long deletedAt) {
+                                        Snackbar.make(anchor, R.string.all_notes_deleted,
+                                                Snackbar.LENGTH_LONG)
+                                                .setAction(R.string.undo_button, view ->
+                                                        notesViewModel.restoreNotes(deletedAt)
+                                                                .subscribeOn(Schedulers.io())
+                                                                .onErrorComplete()
+                                                                .subscribe())
+                                                .show();
                                     }
 
                                     @Override
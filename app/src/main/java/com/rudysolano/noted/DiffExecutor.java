@@ -0,0 +1,69 @@
+package com.rudysolano.noted;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The executor the notes list computes its diffs on. Diffs run on a dedicated thread, so they
+ * never wait behind database work on the shared I/O threads, and each diff is timed. Only diffs
+ * slower than a frame are logged; the timings of every diff are kept behind getters.
+ */
+public class DiffExecutor implements Executor {
+
+    private static final String TAG = "DiffExecutor";
+    //A diff taking longer than a frame at 60 fps delays the list update visibly
+    static final long SLOW_DIFF_NS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private final ExecutorService executor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "notes-diff"));
+
+    //Metrics, only written from the diff thread
+    private volatile int diffCount;
+    private volatile long lastDiffNs;
+    private volatile long totalDiffNs;
+    private volatile long maxDiffNs;
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            command.run();
+            record(System.nanoTime() - start);
+        });
+    }
+
+    private void record(long elapsedNs) {
+        lastDiffNs = elapsedNs;
+        totalDiffNs += elapsedNs;
+        maxDiffNs = Math.max(maxDiffNs, elapsedNs);
+        diffCount++;
+        if (elapsedNs > SLOW_DIFF_NS) {
+            Log.w(TAG, "Slow diff: " + TimeUnit.NANOSECONDS.toMillis(elapsedNs) + " ms");
+        }
+    }
+
+    //Getters
+
+    public int getDiffCount() {
+        return diffCount;
+    }
+
+    public long getLastDiffNs() {
+        return lastDiffNs;
+    }
+
+    public long getMaxDiffNs() {
+        return maxDiffNs;
+    }
+
+    public long getAverageDiffNs() {
+        int count = diffCount;
+        return count == 0 ? 0 : totalDiffNs / count;
+    }
+}
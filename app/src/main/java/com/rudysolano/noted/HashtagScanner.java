@@ -0,0 +1,194 @@
+package com.rudysolano.noted;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Validates a note and finds its hashtags in a single pass over the text. Validating a note and
+ * finding its first hashtag does not allocate.
+ *
+ * The validity codes are the ones returned by {@link ProcessTextUtils#validateEntry(String)}, and
+ * the hashtag found is the same one {@link ProcessTextUtils#getHashtag(String)} would find: a hash
+ * followed by word characters (a-zA-Z_0-9), which can contain an apostrophe in the middle or at
+ * the end. The result is written to a {@link Result}, which callers can reuse between scans.
+ */
+public final class HashtagScanner {
+
+    private HashtagScanner() {
+        //no instances
+    }
+
+    /**
+     * The outcome of a scan: the validity code of the text and, if the text is valid and has a
+     * well formed hashtag, the bounds of its first tag (the hashtag without the hash).
+     */
+    public static final class Result {
+        private int validity;
+        private int tagStart;
+        private int tagEnd;
+
+        public int getValidity() {
+            return validity;
+        }
+
+        /**
+         * @return the index of the first character of the tag, or -1 if no tag was found
+         */
+        public int getTagStart() {
+            return tagStart;
+        }
+
+        /**
+         * @return the index after the last character of the tag, or -1 if no tag was found
+         */
+        public int getTagEnd() {
+            return tagEnd;
+        }
+
+        /**
+         * @param text the text that was scanned
+         * @return the tag, without the hash, or an empty string if no tag was found
+         */
+        public String getTag(String text) {
+            return tagStart == -1 ? "" : text.substring(tagStart, tagEnd);
+        }
+
+        private void set(int validity, int tagStart, int tagEnd) {
+            this.validity = validity;
+            this.tagStart = tagStart;
+            this.tagEnd = tagEnd;
+        }
+    }
+
+    /**
+     * Scans the provided text, verifying that it is not null or empty, that it contains at least
+     * one "#" and that the character after every # is a letter or number, and finds the bounds of
+     * its first tag.
+     * @param text the text to scan
+     * @param result where the outcome of the scan is written
+     */
+    public static void scan(CharSequence text, Result result) {
+        scan(text, result, null);
+    }
+
+    /**
+     * Scans the provided text like {@link #scan(CharSequence, Result)}, and also collects every
+     * tag in the text, in the same pass.
+     * @param text the text to scan
+     * @param result where the outcome of the scan is written
+     * @param tags if not null, the distinct tags of the text (without the hash) are added to it
+     */
+    public static void scan(CharSequence text, Result result, @Nullable List<String> tags) {
+        if (text == null || text.length() == 0) {
+            result.set(ProcessTextUtils.ENTRY_EMPTY, -1, -1);
+            return;
+        }
+
+        final int length = text.length();
+        boolean foundHash = false;
+        int firstTagStart = -1;
+        int firstTagEnd = -1;
+
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) != '#') {
+                continue;
+            }
+
+            foundHash = true;
+
+            if (i + 1 == length || !Character.isLetterOrDigit(text.charAt(i + 1))) {
+                result.set(ProcessTextUtils.INVALID_HASHTAG, -1, -1);
+                return;
+            }
+
+            int tagEnd = findTagEnd(text, i + 1);
+
+            if (tagEnd != -1) {
+                if (firstTagStart == -1) {
+                    firstTagStart = i + 1;
+                    firstTagEnd = tagEnd;
+                }
+
+                if (tags != null) {
+                    String tag = text.subSequence(i + 1, tagEnd).toString();
+                    if (!tags.contains(tag)) {
+                        tags.add(tag);
+                    }
+                }
+
+                //Continue after the tag, since it cannot contain another hash.
+                i = tagEnd - 1;
+            }
+        }
+
+        if (!foundHash) {
+            result.set(ProcessTextUtils.ENTRY_MISSING_HASH, -1, -1);
+        } else {
+            result.set(ProcessTextUtils.ENTRY_VALID, firstTagStart, firstTagEnd);
+        }
+    }
+
+    /**
+     * Returns the distinct tags (without the hash) found in the provided text, in the order they
+     * appear.
+     * @param text the text to scan
+     */
+    public static List<String> findTags(CharSequence text) {
+        List<String> tags = new ArrayList<>();
+        scan(text, new Result(), tags);
+        return tags;
+    }
+
+    /**
+     * Finds the end of the tag starting at the provided index, following the same rules as the
+     * pattern #\w+'?\w+'? (note that the pattern needs at least two word characters).
+     * @return the index after the last character of the tag, or -1 if there is no tag
+     */
+    private static int findTagEnd(CharSequence text, int start) {
+        final int firstRunEnd = skipWordChars(text, start);
+        final int firstRunLength = firstRunEnd - start;
+
+        if (firstRunLength == 0) {
+            return -1;
+        }
+
+        if (isApostropheBeforeWord(text, firstRunEnd)) {
+            //A second run of word characters follows the apostrophe, and can end with another one.
+            final int secondRunEnd = skipWordChars(text, firstRunEnd + 1);
+            return isChar(text, secondRunEnd, '\'') ? secondRunEnd + 1 : secondRunEnd;
+        }
+
+        if (firstRunLength == 1) {
+            //A single word character needs an apostrophe and more word characters to be a tag.
+            return -1;
+        }
+
+        return isChar(text, firstRunEnd, '\'') ? firstRunEnd + 1 : firstRunEnd;
+    }
+
+    private static int skipWordChars(CharSequence text, int index) {
+        while (index < text.length() && isWordChar(text.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isApostropheBeforeWord(CharSequence text, int index) {
+        return isChar(text, index, '\'') && index + 1 < text.length()
+                && isWordChar(text.charAt(index + 1));
+    }
+
+    private static boolean isChar(CharSequence text, int index, char c) {
+        return index < text.length() && text.charAt(index) == c;
+    }
+
+    /**
+     * Matches the \w character class: a-z, A-Z, 0-9 and underscore.
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '_';
+    }
+}
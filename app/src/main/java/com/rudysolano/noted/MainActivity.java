@@ -13,6 +13,8 @@ import androidx.lifecycle.ViewModelProvider;
 import android.view.Menu;
 import android.view.MenuItem;
 
+import io.reactivex.schedulers.Schedulers;
+
 /**
  * The MainActivity has limited responsibilities. Outside of showing the {@link NotesFragment}, it
  * handles the creation of the toolbar menu, handles the menu item selections, and handles requests
@@ -52,16 +54,29 @@ public class MainActivity extends AppCompatActivity
         });
     }
 
+    /**
+     * Commits the notes waiting in the write queue as soon as the app leaves the screen, since
+     * the process can be killed at any time once it is in the background. Then removes the
+     * deleted notes that can no longer be restored, while the user is not waiting on the
+     * database.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        mNotesViewModel.flushWrites()
+                .andThen(mNotesViewModel.purgeDeletedNotes().ignoreElement())
+                .subscribeOn(Schedulers.io()).onErrorComplete().subscribe();
+    }
+
     /**
      * Implementation of callback method for
      * {@link NotesFragment.OnEditNoteRequestListener}. Handles the
      * request to edit a note by showing {@link AddEditNoteDialogFragment}.
      * @param id the id for the note being edited
-     * @param noteText the note text for the note being edited
      */
     @Override
-    public void onEditNoteRequest(int id, String noteText) {
-        showDialogFragment(com.rudysolano.noted.AddEditNoteDialogFragment.newInstance(id, noteText));
+    public void onEditNoteRequest(int id) {
+        showDialogFragment(com.rudysolano.noted.AddEditNoteDialogFragment.newInstance(id));
     }
 
     /**
@@ -2,7 +2,6 @@ package com.rudysolano.noted;
 
 import android.os.Parcel;
 import android.os.Parcelable;
-import android.util.SparseBooleanArray;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -13,6 +12,8 @@ import androidx.appcompat.view.ActionMode;
 import androidx.collection.LongSparseArray;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.util.Arrays;
+
 public class MultiChoiceHelper {
     /**
      * A ViewHolder base class which works with the MultiChoiceHelper and reproduces the default
@@ -40,15 +41,20 @@ public class MultiChoiceHelper {
             });
 
             itemView.setOnLongClickListener(view -> {
-                if ((multiChoiceHelper == null) || isMultiChoiceActive()) {
+                if (multiChoiceHelper == null) {
                     return false;
                 }
 
                 int position = getAdapterPosition();
 
                 if (position != RecyclerView.NO_POSITION) {
-                    multiChoiceHelper.setItemActivated(position, true, false);
-                    updateActivatedState(position);
+                    if (isMultiChoiceActive()) {
+                        // A long click during selection extends it to a range.
+                        multiChoiceHelper.activateRangeTo(position);
+                    } else {
+                        multiChoiceHelper.setItemActivated(position, true, false);
+                        updateActivatedState(position);
+                    }
                 }
 
                 return true;
@@ -95,19 +101,26 @@ public class MultiChoiceHelper {
         void onItemActivatedStateChanged(ActionMode mode, int position, long id, boolean activated);
     }
 
-    private static final int ACTIVATED_POSITION_SEARCH_DISTANCE = 20;
-
     private final AppCompatActivity activity;
     private final RecyclerView.Adapter adapter;
-    private SparseBooleanArray activatedPositions;
-    private LongSparseArray<Integer> activatedIdStates;
-    private int activatedItemCount = 0;
+    private final AdapterItemSource adapterItemSource = new AdapterItemSource();
+    private ItemSource itemSource = adapterItemSource;
+    //The selection is stored as a set of item ids and a flag. When the flag is false, the items
+    // in the set are activated. When it is true, every item is activated except the ones in the
+    // set. Selecting all items or inverting the selection then only flips the flag. The set is
+    // sorted by id, and only as large as the number of ids in it, however large the ids are.
+    private boolean inverted;
+    private LongSparseArray<Boolean> exceptionIds = new LongSparseArray<>();
+    //The position of the item last activated or deactivated, where a range selection starts
+    private int anchorPosition = RecyclerView.NO_POSITION;
     private MultiChoiceModeWrapper multiChoiceModeCallback;
     ActionMode choiceActionMode;
 
     /**
      * Make sure this constructor is called before setting the adapter on the RecyclerView
      * so this class will be notified before the RecyclerView in case of data set changes.
+     * Items are tracked by id if the adapter has stable ids, so a selection follows its items
+     * when they move. Otherwise they are tracked by position, and no ids are returned.
      */
     public MultiChoiceHelper(@NonNull AppCompatActivity activity,
                              @NonNull RecyclerView.Adapter adapter) {
@@ -115,12 +128,6 @@ public class MultiChoiceHelper {
         this.adapter = adapter;
 
         adapter.registerAdapterDataObserver(new AdapterDataSetObserver());
-
-        activatedPositions = new SparseBooleanArray(0);
-
-        if (adapter.hasStableIds()) {
-            activatedIdStates = new LongSparseArray<>(0);
-        }
     }
 
     public void setMultiChoiceModeListener(MultiChoiceModeListener listener) {
@@ -137,50 +144,162 @@ public class MultiChoiceHelper {
         multiChoiceModeCallback.setWrapped(listener);
     }
 
+    /**
+     * Sets the items that select all applies to, when the adapter does not hold all of them.
+     */
+    public void setItemSource(@NonNull ItemSource itemSource) {
+        this.itemSource = itemSource;
+    }
+
     public int getActivatedItemCount() {
-        return activatedItemCount;
+        if (inverted) {
+            return Math.max(0, itemSource.getItemCount() - exceptionIds.size());
+        }
+
+        return exceptionIds.size();
     }
 
     public boolean isItemActivated(int position) {
-        return activatedPositions.get(position);
+        return isIdActivated(getItemKey(position));
     }
 
-    public long[] getActivatedItemIds() {
-        final LongSparseArray<Integer> idStates = activatedIdStates;
+    private boolean isIdActivated(long id) {
+        return inverted != exceptionIds.containsKey(id);
+    }
+
+    /**
+     * Returns the id the selection tracks the item at the provided position by: its id if the
+     * adapter has stable ids, or else its position.
+     */
+    private long getItemKey(int position) {
+        return adapter.hasStableIds() ? adapter.getItemId(position) : position;
+    }
 
-        if (idStates == null) {
+    /**
+     * Returns the ids of the activated items. When every item but a few is activated, the ids of
+     * all items are only read from the item source here, once they are needed.
+     */
+    public long[] getActivatedItemIds() {
+        if (!adapter.hasStableIds()) {
             return new long[0];
         }
 
-        final int count = idStates.size();
-        final long[] ids = new long[count];
+        if (!inverted) {
+            return getExceptionIds();
+        }
+
+        final long[] allIds = itemSource.getItemIds();
+        final long[] ids = new long[allIds.length];
+        int count = 0;
+
+        for (long id : allIds) {
+            if (!exceptionIds.containsKey(id)) {
+                ids[count++] = id;
+            }
+        }
+
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Returns true if every item is activated except the ones returned by
+     * {@link #getExceptionIds()}, for example after {@link #selectAll()}. The activated items can
+     * then be described without listing them.
+     */
+    public boolean isInverted() {
+        return inverted;
+    }
+
+    /**
+     * Returns the ids of the items that are not activated if the selection is inverted (see
+     * {@link #isInverted()}), or else of the items that are, in increasing order.
+     */
+    public long[] getExceptionIds() {
+        final long[] ids = new long[exceptionIds.size()];
 
-        for (int i = 0; i < count; i++) {
-            ids[i] = idStates.keyAt(i);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = exceptionIds.keyAt(i);
         }
 
         return ids;
     }
 
     public void clearChoices() {
-        if (activatedItemCount > 0) {
-            final int start = activatedPositions.keyAt(0);
-            final int end = activatedPositions.keyAt(activatedPositions.size() - 1);
+        if (inverted || exceptionIds.size() > 0) {
+            inverted = false;
+            exceptionIds.clear();
+            anchorPosition = RecyclerView.NO_POSITION;
 
-            activatedPositions.clear();
+            adapter.notifyItemRangeChanged(0, adapter.getItemCount());
 
-            if (activatedIdStates != null) {
-                activatedIdStates.clear();
+            if (choiceActionMode != null) {
+                choiceActionMode.finish();
             }
+        }
+    }
+
+    /**
+     * Activates every item. Takes constant time, however many items there are.
+     */
+    public void selectAll() {
+        startSupportActionModeIfNeeded();
 
-            activatedItemCount = 0;
+        inverted = true;
+        exceptionIds.clear();
 
-            adapter.notifyItemRangeChanged(start, end - start + 1);
+        adapter.notifyItemRangeChanged(0, adapter.getItemCount());
+        onActivatedItemsChanged();
+    }
 
-            if (choiceActionMode != null) {
-                choiceActionMode.finish();
+    /**
+     * Activates the items that are not activated, and deactivates the others. Takes constant
+     * time, however many items there are.
+     */
+    public void invertChoices() {
+        inverted = !inverted;
+
+        adapter.notifyItemRangeChanged(0, adapter.getItemCount());
+        onActivatedItemsChanged();
+    }
+
+    /**
+     * Activates or deactivates the items between the two provided positions, both included.
+     */
+    public void setRangeActivated(int fromPosition, int toPosition, boolean value) {
+        final int start = Math.max(0, Math.min(fromPosition, toPosition));
+        final int end = Math.min(Math.max(fromPosition, toPosition), adapter.getItemCount() - 1);
+
+        if (start > end) {
+            return;
+        }
+
+        if (value) {
+            startSupportActionModeIfNeeded();
+        }
+
+        for (int position = start; position <= end; position++) {
+            final long id = getItemKey(position);
+
+            if (isIdActivated(id) != value) {
+                toggleException(id);
             }
         }
+
+        anchorPosition = toPosition;
+        adapter.notifyItemRangeChanged(start, end - start + 1);
+        onActivatedItemsChanged();
+    }
+
+    /**
+     * Activates the items from the item last activated or deactivated to the provided position,
+     * like a shift-click. Only activates the provided item if no item was activated yet.
+     */
+    public void activateRangeTo(int position) {
+        if (anchorPosition == RecyclerView.NO_POSITION) {
+            setItemActivated(position, true, true);
+        } else {
+            setRangeActivated(anchorPosition, position, true);
+        }
     }
 
     public void setItemActivated(int position, boolean value, boolean notifyChanged) {
@@ -189,26 +308,13 @@ public class MultiChoiceHelper {
             startSupportActionModeIfNeeded();
         }
 
-        boolean oldValue = activatedPositions.get(position);
+        final long id = getItemKey(position);
+        boolean oldValue = isIdActivated(id);
 
-        activatedPositions.put(position, value);
+        anchorPosition = position;
 
         if (oldValue != value) {
-            final long id = adapter.getItemId(position);
-
-            if (activatedIdStates != null) {
-                if (value) {
-                    activatedIdStates.put(id, position);
-                } else {
-                    activatedIdStates.remove(id);
-                }
-            }
-
-            if (value) {
-                activatedItemCount++;
-            } else {
-                activatedItemCount--;
-            }
+            toggleException(id);
 
             if (notifyChanged) {
                 adapter.notifyItemChanged(position);
@@ -217,7 +323,7 @@ public class MultiChoiceHelper {
             if (choiceActionMode != null) {
                 multiChoiceModeCallback.onItemActivatedStateChanged(choiceActionMode,
                         position, id, value);
-                if (activatedItemCount == 0) {
+                if (getActivatedItemCount() == 0) {
                     choiceActionMode.finish();
                 }
             }
@@ -228,42 +334,51 @@ public class MultiChoiceHelper {
         setItemActivated(position, !isItemActivated(position), notifyChanged);
     }
 
-    public Parcelable onSaveInstanceState() {
-        SavedState savedState = new SavedState();
-
-        savedState.activatedItemCount = activatedItemCount;
-        savedState.isPositionActivated = clone(activatedPositions);
-
-        if (activatedIdStates != null) {
-            savedState.activatedIdStates = activatedIdStates.clone();
+    private void toggleException(long id) {
+        if (exceptionIds.containsKey(id)) {
+            exceptionIds.remove(id);
+        } else {
+            exceptionIds.put(id, Boolean.TRUE);
         }
+    }
 
-        return savedState;
+    /**
+     * Updates the action mode after several items were activated or deactivated at once.
+     */
+    private void onActivatedItemsChanged() {
+        if (choiceActionMode != null) {
+            if (getActivatedItemCount() == 0) {
+                choiceActionMode.finish();
+            } else {
+                choiceActionMode.invalidate();
+            }
+        }
     }
 
-    private static SparseBooleanArray clone(SparseBooleanArray original) {
-        final int size = original.size();
-        SparseBooleanArray clone = new SparseBooleanArray(size);
+    public Parcelable onSaveInstanceState() {
+        SavedState savedState = new SavedState();
 
-        for (int i = 0; i < size; ++i) {
-            clone.append(original.keyAt(i), original.valueAt(i));
-        }
+        savedState.inverted = inverted;
+        savedState.exceptionIds = getExceptionIds();
 
-        return clone;
+        return savedState;
     }
 
     public void onRestoreInstanceState(Parcelable state) {
-        if ((state != null) && (activatedItemCount == 0)) {
+        if ((state != null) && !inverted && (exceptionIds.size() == 0)) {
             SavedState savedState = (SavedState) state;
-            activatedItemCount = savedState.activatedItemCount;
-            activatedPositions = savedState.isPositionActivated;
-            activatedIdStates = savedState.activatedIdStates;
+            inverted = savedState.inverted;
+
+            for (long id : savedState.exceptionIds) {
+                //The ids are sorted, so they are appended.
+                exceptionIds.append(id, Boolean.TRUE);
+            }
 
-            if (activatedItemCount > 0) {
+            if (inverted || exceptionIds.size() > 0) {
                 // Empty adapter is given a chance to be populated before
                 // completeRestoreInstanceState()
                 if (adapter.getItemCount() > 0) {
-                    confirmActivatedPositions();
+                    confirmActivatedItems();
                 }
 
                 activity.getWindow().getDecorView().post(this::completeRestoreInstanceState);
@@ -272,10 +387,10 @@ public class MultiChoiceHelper {
     }
 
     void completeRestoreInstanceState() {
-        if (activatedItemCount > 0) {
+        if (getActivatedItemCount() > 0) {
             if (adapter.getItemCount() == 0) {
                 // Adapter was not populated, clear the selection
-                confirmActivatedPositions();
+                confirmActivatedItems();
             } else {
                 startSupportActionModeIfNeeded();
             }
@@ -294,43 +409,22 @@ public class MultiChoiceHelper {
 
     public static class SavedState implements Parcelable {
 
-        int activatedItemCount;
-        SparseBooleanArray isPositionActivated;
-        LongSparseArray<Integer> activatedIdStates;
+        boolean inverted;
+        //Sorted in increasing order
+        long[] exceptionIds;
 
         SavedState() {
         }
 
         SavedState(Parcel in) {
-            activatedItemCount = in.readInt();
-            isPositionActivated = in.readSparseBooleanArray();
-            final int n = in.readInt();
-
-            if (n >= 0) {
-                activatedIdStates = new LongSparseArray<>(n);
-
-                for (int i = 0; i < n; i++) {
-                    final long key = in.readLong();
-                    final int value = in.readInt();
-
-                    activatedIdStates.append(key, value);
-                }
-            }
+            inverted = in.readInt() != 0;
+            exceptionIds = in.createLongArray();
         }
 
         @Override
         public void writeToParcel(Parcel out, int flags) {
-            out.writeInt(activatedItemCount);
-            out.writeSparseBooleanArray(isPositionActivated);
-
-            final int n = activatedIdStates != null ? activatedIdStates.size() : -1;
-
-            out.writeInt(n);
-
-            for (int i = 0; i < n; i++) {
-                out.writeLong(activatedIdStates.keyAt(i));
-                out.writeInt(activatedIdStates.valueAt(i));
-            }
+            out.writeInt(inverted ? 1 : 0);
+            out.writeLongArray(exceptionIds);
         }
 
         @Override
@@ -351,86 +445,158 @@ public class MultiChoiceHelper {
         };
     }
 
-    void confirmActivatedPositions() {
-        if (activatedItemCount == 0) {
+    /**
+     * Deactivates the items that are no longer in the item source, for example after they were
+     * deleted. Each id in the selection is looked up in the item source by id, so this takes time
+     * in proportion to the size of the selection rather than to the number of items, and items
+     * that moved, however far, stay activated.
+     */
+    void confirmActivatedItems() {
+        if (!inverted && exceptionIds.size() == 0) {
             return;
         }
 
-        final int itemCount = adapter.getItemCount();
-        boolean activatedCountChanged = false;
+        final int countBefore = getActivatedItemCount();
 
-        if (itemCount == 0) {
+        if (itemSource.getItemCount() == 0) {
             // Optimized path for empty adapter: remove all items.
-            activatedPositions.clear();
+            inverted = false;
+            exceptionIds.clear();
+        } else {
+            for (int i = exceptionIds.size() - 1; i >= 0; i--) {
+                if (itemSource.getItemPosition(exceptionIds.keyAt(i))
+                        == RecyclerView.NO_POSITION) {
+                    exceptionIds.removeAt(i);
+                }
+            }
+        }
+
+        if (getActivatedItemCount() != countBefore) {
+            onActivatedItemsChanged();
+        }
+    }
+
+    /**
+     * The items that can be activated. By default, the items held by the adapter.
+     */
+    public interface ItemSource {
+        int getItemCount();
+
+        long[] getItemIds();
+
+        /**
+         * Returns the position of the item with the provided id, or
+         * {@link RecyclerView#NO_POSITION} if there is none. Called once per selected item when
+         * the items change, so it should not scan the items.
+         */
+        int getItemPosition(long id);
+    }
+
+    /**
+     * The items held by the adapter. Positions are looked up in an index of the adapter's ids,
+     * which is built the first time it is needed after the items change. Without stable ids,
+     * the ids are the positions.
+     */
+    class AdapterItemSource implements ItemSource {
+
+        //(id - smallest id, position) pairs packed in longs and sorted, or null if the items
+        // changed since they were indexed
+        private long[] positionIndex;
+        private long smallestId;
+        //True if the ids are too far apart to be indexed, until the items change
+        private boolean unindexed;
+
+        @Override
+        public int getItemCount() {
+            return adapter.getItemCount();
+        }
 
-            if (activatedIdStates != null) {
-                activatedIdStates.clear();
+        @Override
+        public long[] getItemIds() {
+            final long[] ids = new long[adapter.getItemCount()];
+
+            for (int position = 0; position < ids.length; position++) {
+                ids[position] = getItemKey(position);
             }
 
-            activatedItemCount = 0;
-            activatedCountChanged = true;
-        } else if (activatedIdStates != null) {
-            // Clear out the positional activated states, we'll rebuild it below from IDs.
-            activatedPositions.clear();
+            return ids;
+        }
 
-            for (int index = 0; index < activatedIdStates.size(); index++) {
-                final long id = activatedIdStates.keyAt(index);
-                final int lastPos = activatedIdStates.valueAt(index);
+        @Override
+        public int getItemPosition(long id) {
+            if (!adapter.hasStableIds()) {
+                return id >= 0 && id < adapter.getItemCount() ? (int) id : RecyclerView.NO_POSITION;
+            }
 
-                if ((lastPos >= itemCount) || (id != adapter.getItemId(lastPos))) {
-                    // Look around to see if the ID is nearby. If not, deactivate it.
-                    final int start = Math.max(0, lastPos - ACTIVATED_POSITION_SEARCH_DISTANCE);
-                    final int end = Math.min(lastPos + ACTIVATED_POSITION_SEARCH_DISTANCE,
-                            itemCount);
-                    boolean found = false;
+            if (unindexed || (positionIndex == null && !buildPositionIndex())) {
+                return findItemPosition(id);
+            }
 
-                    for (int searchPos = start; searchPos < end; searchPos++) {
-                        final long searchId = adapter.getItemId(searchPos);
+            // The first pair with the provided id, if any, is the one at the insertion point of
+            // (id, 0).
+            final long offset = id - smallestId;
+            if (offset < 0 || offset > Integer.MAX_VALUE) {
+                return RecyclerView.NO_POSITION;
+            }
 
-                        if (id == searchId) {
-                            found = true;
+            int index = Arrays.binarySearch(positionIndex, offset << 32);
+            if (index < 0) {
+                index = -index - 1;
+            }
 
-                            activatedPositions.put(searchPos, true);
-                            activatedIdStates.setValueAt(index, searchPos);
+            if (index < positionIndex.length && (positionIndex[index] >>> 32) == offset) {
+                return (int) positionIndex[index];
+            }
 
-                            break;
-                        }
-                    }
+            return RecyclerView.NO_POSITION;
+        }
 
-                    if (!found) {
-                        activatedIdStates.remove(id);
-                        index--;
-                        activatedItemCount--;
-                        activatedCountChanged = true;
+        /**
+         * Builds the index of positions by id. Ids are stored as offsets from the smallest one,
+         * packed in longs rather than stored in a map, which avoids boxing every item.
+         * @return false if the ids are too far apart to be packed
+         */
+        private boolean buildPositionIndex() {
+            final long[] ids = getItemIds();
+            long smallest = Long.MAX_VALUE;
+            long largest = Long.MIN_VALUE;
+
+            for (long id : ids) {
+                smallest = Math.min(smallest, id);
+                largest = Math.max(largest, id);
+            }
 
-                        if (choiceActionMode != null && multiChoiceModeCallback != null) {
-                            multiChoiceModeCallback.onItemActivatedStateChanged(choiceActionMode,
-                                    lastPos, id, false);
-                        }
-                    }
-                } else {
-                    activatedPositions.put(lastPos, true);
-                }
+            final long range = largest - smallest;
+            if (ids.length > 0 && (range < 0 || range > Integer.MAX_VALUE)) {
+                unindexed = true;
+                return false;
             }
-        } else {
-            // If the total number of items decreased, remove all out-of-range activated indexes.
-            for (int i = activatedPositions.size() - 1; (i >= 0) &&
-                    (activatedPositions.keyAt(i) >= itemCount); i--) {
-                if (activatedPositions.valueAt(i)) {
-                    activatedItemCount--;
-                    activatedCountChanged = true;
-                }
 
-                activatedPositions.delete(activatedPositions.keyAt(i));
+            final long[] index = new long[ids.length];
+
+            for (int position = 0; position < ids.length; position++) {
+                index[position] = ((ids[position] - smallest) << 32) | position;
             }
+
+            Arrays.sort(index);
+            smallestId = smallest;
+            positionIndex = index;
+            return true;
         }
 
-        if (activatedCountChanged && choiceActionMode != null) {
-            if (activatedItemCount == 0) {
-                choiceActionMode.finish();
-            } else {
-                choiceActionMode.invalidate();
+        private int findItemPosition(long id) {
+            for (int position = 0; position < adapter.getItemCount(); position++) {
+                if (adapter.getItemId(position) == id) {
+                    return position;
+                }
             }
+
+            return RecyclerView.NO_POSITION;
+        }
+
+        void invalidate() {
+            positionIndex = null;
+            unindexed = false;
         }
     }
 
@@ -438,22 +604,30 @@ public class MultiChoiceHelper {
 
         @Override
         public void onChanged() {
-            confirmActivatedPositions();
+            adapterItemSource.invalidate();
+            confirmActivatedItems();
         }
 
         @Override
         public void onItemRangeInserted(int positionStart, int itemCount) {
-            confirmActivatedPositions();
+            adapterItemSource.invalidate();
+
+            // Items are tracked by id, so new items only change the count of an inverted
+            // selection.
+            if (inverted && choiceActionMode != null) {
+                choiceActionMode.invalidate();
+            }
         }
 
         @Override
-        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
-            confirmActivatedPositions();
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            adapterItemSource.invalidate();
+            confirmActivatedItems();
         }
 
         @Override
-        public void onItemRangeRemoved(int positionStart, int itemCount) {
-            confirmActivatedPositions();
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            adapterItemSource.invalidate();
         }
     }
 
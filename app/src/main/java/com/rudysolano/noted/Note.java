@@ -3,12 +3,29 @@ package com.rudysolano.noted;
 import androidx.annotation.NonNull;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 /**
- * A Note object. Uses Room annotations to work with SQLite database.
+ * A Note object. Uses Room annotations to work with SQLite database. The (tag, id) index lets
+ * notes be looked up and sorted by tag without sorting the whole table; since it starts with the
+ * tag, it also serves lookups by tag alone.
+ *
+ * The content hash is a 64-bit hash of the text and tag, computed when the note is created. Two
+ * versions of a note can be compared with their hashes, instead of comparing their whole text.
+ *
+ * The version and the time of the last change (updated_at) are set by {@link NotesDao} whenever
+ * the note is written. The version only increases when the content changes, and updated_at
+ * increases with every write to the table, so it can be used as a checkpoint: every note changed
+ * since a checkpoint has a greater updated_at.
+ *
+ * Deleting a note only sets its deleted_at (see {@link NotesDao}), so the deletion can be undone
+ * until the note is purged. Every query that lists notes only reads the notes whose deleted_at is
+ * 0. The (deleted_at, tag, id) index keeps the live notes apart from the deleted ones, in tag
+ * order, so listing them never reads a deleted note.
  */
-@Entity(tableName ="notes_table")
+@Entity(tableName ="notes_table", indices = {@Index(value = {"deleted_at", "tag", "id"}),
+        @Index(value = {"updated_at"})})
 public class Note {
 
     //Set the column tables
@@ -18,11 +35,42 @@ public class Note {
     private final String noteText;
     @ColumnInfo(name = "tag")
     private final String tag;
+    @ColumnInfo(name = "content_hash", defaultValue = "0")
+    private long contentHash;
+    @ColumnInfo(name = "updated_at", defaultValue = "0")
+    private long updatedAt;
+    @ColumnInfo(name = "version", defaultValue = "1")
+    private int version;
+    //When the note was deleted, or 0 if it was not
+    @ColumnInfo(name = "deleted_at", defaultValue = "0")
+    private long deletedAt;
 
     //Constructor
     public Note(@NonNull String noteText, @NonNull String tag) {
         this.noteText = noteText;
         this.tag = tag;
+        this.contentHash = computeContentHash(noteText, tag);
+    }
+
+    /**
+     * Computes the 64-bit FNV-1a hash of the characters of the provided text and tag.
+     */
+    public static long computeContentHash(String noteText, String tag) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, noteText);
+        //Separate the text from the tag, so moving characters between them changes the hash.
+        hash = (hash ^ 0xffff) * 0x100000001b3L;
+        return hash(hash, tag);
+    }
+
+    private static long hash(long hash, String string) {
+        if (string == null) {
+            return hash;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            hash = (hash ^ string.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
     }
 
     //Getters and setters
@@ -39,7 +87,41 @@ public class Note {
         return tag;
     }
 
+    public long getContentHash() {
+        return contentHash;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getDeletedAt() {
+        return deletedAt;
+    }
+
     public void setId(int id) {
         this.id = id;
     }
+
+    //Used by Room, which reads the stored hash rather than computing it again.
+    void setContentHash(long contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    //Set by NotesDao when the note is written, and by Room when it is read.
+    void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    void setVersion(int version) {
+        this.version = version;
+    }
+
+    void setDeletedAt(long deletedAt) {
+        this.deletedAt = deletedAt;
+    }
 }
\ No newline at end of file
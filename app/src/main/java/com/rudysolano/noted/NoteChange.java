@@ -0,0 +1,61 @@
+package com.rudysolano.noted;
+
+import androidx.annotation.IntDef;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * One entry of the note change journal. Triggers on notes_table (see
+ * {@link NotesDatabase#NOTE_CHANGE_TRIGGERS}) add an entry for every note inserted, updated,
+ * deleted or restored, so readers can catch up on what changed since the last entry they saw,
+ * instead of reading every note again.
+ */
+@Entity(tableName = "note_changes")
+public class NoteChange {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({OP_INSERT, OP_UPDATE, OP_DELETE, OP_RESTORE})
+    public @interface Operation {}
+    public static final int OP_INSERT = 0;
+    public static final int OP_UPDATE = 1;
+    public static final int OP_DELETE = 2;
+    //A deleted note was restored. Readers treat it like an insert.
+    public static final int OP_RESTORE = 3;
+
+    //Increases with every change. AUTOINCREMENT makes sure a number is never reused, even after
+    // the journal is emptied.
+    @PrimaryKey(autoGenerate = true)
+    @ColumnInfo(name = "seq")
+    private final long seq;
+    @ColumnInfo(name = "note_id")
+    private final int noteId;
+    @Operation
+    @ColumnInfo(name = "op")
+    private final int op;
+
+    //Constructor
+    public NoteChange(long seq, int noteId, @Operation int op) {
+        this.seq = seq;
+        this.noteId = noteId;
+        this.op = op;
+    }
+
+    //Getters
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    @Operation
+    public int getOp() {
+        return op;
+    }
+}
@@ -0,0 +1,51 @@
+package com.rudysolano.noted;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * The text of a note that is being written, saved while the user types (see
+ * {@link AddEditNoteDialogFragment}), so it is not lost if the process is killed before the note
+ * is saved. A note has at most one draft, which is replaced as the text changes and deleted once
+ * the note is saved or the edit is cancelled.
+ */
+@Entity(tableName = "note_drafts")
+public class NoteDraft {
+
+    //The key of the draft of a new note, which does not have an id yet. Note ids start at 1.
+    public static final int NEW_NOTE_ID = 0;
+
+    //The id of the note being edited, or NEW_NOTE_ID
+    @PrimaryKey
+    @ColumnInfo(name = "note_id")
+    private final int noteId;
+    @NonNull
+    @ColumnInfo(name = "text")
+    private final String text;
+    @ColumnInfo(name = "updated_at")
+    private final long updatedAt;
+
+    //Constructor
+    public NoteDraft(int noteId, @NonNull String text, long updatedAt) {
+        this.noteId = noteId;
+        this.text = text;
+        this.updatedAt = updatedAt;
+    }
+
+    //Getters
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    @NonNull
+    public String getText() {
+        return text;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -0,0 +1,27 @@
+package com.rudysolano.noted;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+
+/**
+ * Full-text search index over the text of every {@link Note}. The index is an external content
+ * FTS4 table, so it only stores the search tokens and reads the text itself from notes_table.
+ * Room creates triggers that keep the index in sync whenever a note is inserted, updated or
+ * deleted.
+ */
+@Fts4(contentEntity = Note.class)
+@Entity(tableName = "notes_fts")
+public class NoteFts {
+
+    @ColumnInfo(name = "note_text")
+    private final String noteText;
+
+    public NoteFts(String noteText) {
+        this.noteText = noteText;
+    }
+
+    public String getNoteText() {
+        return noteText;
+    }
+}
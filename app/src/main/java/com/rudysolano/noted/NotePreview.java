@@ -0,0 +1,78 @@
+package com.rudysolano.noted;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+
+/**
+ * What the notes list shows of a note: its id, tag, version, and the start of its text. Long
+ * notes are cut at {@link #PREVIEW_LENGTH} characters by the query itself (see
+ * {@link NotesDao#getNotePreviewsById(int[])}), so the rest of their text is never copied out of
+ * the database. The full note is only loaded when it is opened.
+ */
+public class NotePreview {
+
+    //Number of characters of the note text loaded for the list
+    public static final int PREVIEW_LENGTH = 500;
+    //Appended to the preview of a note that is longer than the preview
+    private static final String ELLIPSIS = "…";
+
+    @ColumnInfo(name = "id")
+    private final int id;
+    @ColumnInfo(name = "tag")
+    private final String tag;
+    @ColumnInfo(name = "version")
+    private final int version;
+    @ColumnInfo(name = "preview")
+    private final String preview;
+    //True if the note text is longer than the preview
+    @ColumnInfo(name = "truncated")
+    private final boolean truncated;
+
+    //Constructor
+    public NotePreview(int id, String tag, int version, String preview, boolean truncated) {
+        this.id = id;
+        this.tag = tag;
+        this.version = version;
+        this.preview = preview;
+        this.truncated = truncated;
+    }
+
+    //Getters
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getPreview() {
+        return preview;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Returns the text to display: the preview, followed by an ellipsis if the note is longer.
+     */
+    @NonNull
+    public String getDisplayText() {
+        if (!truncated) {
+            return preview;
+        }
+
+        //Do not end the preview with half of a character that needs two chars.
+        int end = preview.length();
+        if (end > 0 && Character.isHighSurrogate(preview.charAt(end - 1))) {
+            end--;
+        }
+        return preview.substring(0, end) + ELLIPSIS;
+    }
+}
@@ -0,0 +1,76 @@
+package com.rudysolano.noted;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Ignore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * The id of a {@link Note} returned by a full-text search, along with the raw FTS4 matchinfo()
+ * blob that is used to rank it against the other results.
+ */
+public class NoteSearchResult {
+
+    @ColumnInfo(name = "id")
+    private final int noteId;
+    @ColumnInfo(name = "match_info")
+    private final byte[] matchInfo;
+    @Ignore
+    private final double rank;
+
+    //Constructor
+    public NoteSearchResult(int noteId, byte[] matchInfo) {
+        this.noteId = noteId;
+        this.matchInfo = matchInfo;
+        this.rank = computeRank(matchInfo);
+    }
+
+    //Getters
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    public byte[] getMatchInfo() {
+        return matchInfo;
+    }
+
+    /**
+     * @return the rank of this note; higher is more relevant
+     */
+    public double getRank() {
+        return rank;
+    }
+
+    /**
+     * Computes how relevant this note is to the search. The default matchinfo() format ("pcx")
+     * holds the number of phrases and columns, followed by three values per phrase and column:
+     * hits in this row, hits in all rows, and number of rows with at least one hit. Each phrase
+     * contributes the share of all its hits that are found in this note, so rare words that
+     * appear often in a note rank it higher than common words.
+     * @param matchInfo the matchinfo() blob returned with the note
+     * @return the rank of the note; higher is more relevant
+     */
+    private static double computeRank(byte[] matchInfo) {
+        IntBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phraseCount = info.get(0);
+        int columnCount = info.get(1);
+        double rank = 0;
+
+        for (int phrase = 0; phrase < phraseCount; phrase++) {
+            for (int column = 0; column < columnCount; column++) {
+                int offset = 2 + (phrase * columnCount + column) * 3;
+                int hitsInRow = info.get(offset);
+                int hitsInAllRows = info.get(offset + 1);
+
+                if (hitsInAllRows > 0) {
+                    rank += (double) hitsInRow / hitsInAllRows;
+                }
+            }
+        }
+
+        return rank;
+    }
+}
@@ -0,0 +1,509 @@
+package com.rudysolano.noted;
+
+import android.database.Cursor;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.collection.LruCache;
+import androidx.room.InvalidationTracker;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the sort keys (id and tag) of the notes matching the current tag filter in memory, and
+ * produces each of the four sort orders from them as a permutation of the snapshot rows. The
+ * rows are loaded in (tag, id) order, so the tag orders need no permutation at all, and both id
+ * orders share a single cached one (descending orders walk it backwards). Changing the sort order
+ * never queries the database for keys.
+ *
+ * When notes change, the snapshot is patched rather than reloaded: the engine reads the note
+ * change journal (see {@link NoteChange}) from the last entry it saw, and only reads the keys of
+ * the notes that changed. The snapshot is only reloaded in full when the tag filter changes, or
+ * after a large number of changes (such as an import), when reading every key is cheaper.
+ *
+ * The note rows themselves are loaded by id one page at a time (see {@link NotesDataSource}), as
+ * previews (see {@link NotePreview}), and kept in a cache shared by every sort order, so switching
+ * back and forth between orders reuses the rows that were already loaded.
+ */
+public class NoteSortEngine {
+
+    //Number of notes kept in the row cache. Enough for the first pages of every sort order.
+    private static final int ROW_CACHE_SIZE = 500;
+    //Above this number of changes, the snapshot is reloaded instead of patched.
+    private static final int MAX_PATCHED_CHANGES = 1000;
+
+    private final NotesDatabase database;
+    private final NotesDao notesDao;
+    private final LruCache<Integer, NotePreview> rowCache = new LruCache<>(ROW_CACHE_SIZE);
+    private Snapshot snapshot;
+    //True when the journal has entries that were not applied to the snapshot yet
+    private boolean changed;
+    //Incremented every time the data changes, so rows read before a change are not cached.
+    private int generation;
+
+    NoteSortEngine(NotesDatabase database) {
+        this.database = database;
+        this.notesDao = database.notesDao();
+
+        //Registered before any data source, so the snapshot is marked as changed before data
+        // sources are invalidated and their replacements ask for it.
+        database.getInvalidationTracker().addObserver(
+                new InvalidationTracker.Observer("notes_table", "note_tags") {
+                    @Override
+                    public void onInvalidated(@NonNull Set<String> tables) {
+                        onDataChanged();
+                    }
+                });
+    }
+
+    /**
+     * Marks the snapshot as out of date. The journal is only read the next time the snapshot is
+     * needed, so several writes in a row are applied together.
+     */
+    synchronized void onDataChanged() {
+        changed = true;
+        generation++;
+    }
+
+    /**
+     * Returns the snapshot of the notes matching the tag filter of the provided spec. The snapshot
+     * is loaded from the database if the filter changed since the last call, and patched with the
+     * notes that changed since it was taken. Must be called off the main thread.
+     */
+    synchronized Snapshot getSnapshot(NotesQuerySpec spec) {
+        if (snapshot != null && changed && snapshot.hasFilterOf(spec)) {
+            //Cleared first, so changes made while the journal is read are applied next time.
+            changed = false;
+            snapshot = applyChanges(snapshot, spec);
+        }
+        if (snapshot == null || !snapshot.hasFilterOf(spec)) {
+            changed = false;
+            snapshot = loadSnapshot(spec);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the previews of the notes with the provided ids, in the same order. Notes found in
+     * the row cache are not read again. Must be called off the main thread.
+     * @return the previews, or null if one of the notes no longer exists
+     */
+    @Nullable
+    List<NotePreview> getNotes(int[] ids) {
+        NotePreview[] notes = new NotePreview[ids.length];
+        int[] missingIds = new int[ids.length];
+        int missingCount = 0;
+
+        for (int i = 0; i < ids.length; i++) {
+            notes[i] = rowCache.get(ids[i]);
+            if (notes[i] == null) {
+                missingIds[missingCount++] = ids[i];
+            }
+        }
+
+        if (missingCount > 0) {
+            int loadGeneration;
+            synchronized (this) {
+                loadGeneration = generation;
+            }
+
+            List<NotePreview> loaded =
+                    notesDao.getNotePreviewsById(Arrays.copyOf(missingIds, missingCount));
+
+            synchronized (this) {
+                if (loadGeneration == generation) {
+                    for (NotePreview note : loaded) {
+                        rowCache.put(note.getId(), note);
+                    }
+                }
+            }
+
+            //The rows come back in id order, so match them back to their positions.
+            SparseArray<NotePreview> byId = new SparseArray<>(loaded.size());
+            for (NotePreview note : loaded) {
+                byId.put(note.getId(), note);
+            }
+            for (int i = 0; i < ids.length; i++) {
+                if (notes[i] == null && (notes[i] = byId.get(ids[i])) == null) {
+                    return null;
+                }
+            }
+        }
+
+        return Arrays.asList(notes);
+    }
+
+    /**
+     * Reads the keys of every note matching the filter, along with the position in the journal
+     * they correspond to, in a single transaction.
+     */
+    private Snapshot loadSnapshot(NotesQuerySpec spec) {
+        Snapshot loaded = database.runInTransaction(() -> {
+            long lastSeq = notesDao.getLastChangeSeq();
+            try (Cursor cursor = database.query(buildSortKeyQuery(spec, null))) {
+                return new Snapshot(spec, readIds(cursor), readTags(cursor), lastSeq);
+            }
+        });
+
+        rowCache.evictAll();
+        notesDao.deleteChangesUpTo(loaded.lastSeq);
+        return loaded;
+    }
+
+    /**
+     * Reads the journal entries that follow the snapshot, and returns a copy of the snapshot with
+     * the keys of the changed notes replaced. Only the keys of the changed notes are read.
+     */
+    private Snapshot applyChanges(Snapshot current, NotesQuerySpec spec) {
+        Snapshot patched = database.runInTransaction(() -> {
+            List<NoteChange> changes =
+                    notesDao.getChangesAfter(current.lastSeq, MAX_PATCHED_CHANGES + 1);
+            if (changes.isEmpty()) {
+                return current;
+            } else if (changes.size() > MAX_PATCHED_CHANGES) {
+                return null;
+            }
+
+            //Deleted notes can simply be dropped, only the others need to be read again.
+            SparseIntArray lastOps = new SparseIntArray(changes.size());
+            for (NoteChange change : changes) {
+                lastOps.put(change.getNoteId(), change.getOp());
+            }
+            int[] changedIds = new int[lastOps.size()];
+            int[] idsToRead = new int[lastOps.size()];
+            int readCount = 0;
+            for (int i = 0; i < lastOps.size(); i++) {
+                changedIds[i] = lastOps.keyAt(i);
+                if (lastOps.valueAt(i) != NoteChange.OP_DELETE) {
+                    idsToRead[readCount++] = lastOps.keyAt(i);
+                }
+            }
+
+            int[] ids = new int[0];
+            String[] tags = new String[0];
+            if (readCount > 0) {
+                try (Cursor cursor = database.query(buildSortKeyQuery(spec,
+                        Arrays.copyOf(idsToRead, readCount)))) {
+                    ids = readIds(cursor);
+                    tags = readTags(cursor);
+                }
+            }
+
+            long lastSeq = changes.get(changes.size() - 1).getSeq();
+            return current.patch(changedIds, ids, tags, lastSeq);
+        });
+
+        //Too many changes: reload everything instead.
+        if (patched == null) {
+            return loadSnapshot(spec);
+        }
+
+        if (patched != current) {
+            for (int i = 0; i < patched.changedIds.length; i++) {
+                rowCache.remove(patched.changedIds[i]);
+            }
+            notesDao.deleteChangesUpTo(patched.lastSeq);
+        }
+        return patched;
+    }
+
+    private static int[] readIds(Cursor cursor) {
+        int[] ids = new int[cursor.getCount()];
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            ids[i] = cursor.getInt(0);
+        }
+        return ids;
+    }
+
+    private static String[] readTags(Cursor cursor) {
+        String[] tags = new String[cursor.getCount()];
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            tags[i] = cursor.getString(1);
+        }
+        return tags;
+    }
+
+    /**
+     * Builds the query for the sort keys of the notes matching the tag filter of the provided
+     * spec, in (tag, id) order, leaving out deleted notes. Without a filter, the query only reads
+     * the (deleted_at, tag, id) index, from the range of notes that are not deleted. A tag filter
+     * is applied with a lookup in the (tag, note_id) index of note_tags, so notes without the tag
+     * are never read.
+     * @param ids if not null, only the keys of the notes with these ids are returned
+     */
+    static SupportSQLiteQuery buildSortKeyQuery(NotesQuerySpec spec, @Nullable int[] ids) {
+        StringBuilder sql = new StringBuilder("SELECT id, tag FROM notes_table WHERE ");
+        List<Object> args = new ArrayList<>();
+
+        //When reading a few ids, the unary + keeps SQLite on the primary key rather than the
+        // index starting with deleted_at.
+        sql.append(ids != null ? "+deleted_at = 0" : "deleted_at = 0");
+
+        if (spec.getTagFilter() != null) {
+            sql.append(" AND ");
+            appendTagFilter(spec, sql, args);
+        }
+
+        if (ids != null) {
+            //The ids are written into the query, since there can be more than the maximum number
+            // of arguments SQLite accepts.
+            sql.append(" AND id IN (");
+            for (int i = 0; i < ids.length; i++) {
+                sql.append(i == 0 ? "" : ",").append(ids[i]);
+            }
+            sql.append(")");
+        }
+
+        sql.append(" ORDER BY tag ASC, id ASC");
+
+        return new SimpleSQLiteQuery(sql.toString(), args.toArray());
+    }
+
+    /**
+     * Appends the condition matching the notes that pass the tag filter of the provided spec,
+     * which must have one, along with its arguments. Shared by every query that must select the
+     * same notes as the list, like the deletion of all notes but a few.
+     */
+    static void appendTagFilter(NotesQuerySpec spec, StringBuilder sql, List<Object> args) {
+        String tagFilter = spec.getTagFilter();
+
+        sql.append("id IN (SELECT note_id FROM note_tags WHERE ");
+        if (spec.isPrefixMatch()) {
+            //A range on the index, rather than LIKE, which SQLite cannot use the index for.
+            String upperBound = prefixUpperBound(tagFilter);
+            args.add(tagFilter);
+            if (upperBound == null) {
+                sql.append("tag >= ?)");
+            } else {
+                sql.append("tag >= ? AND tag < ?)");
+                args.add(upperBound);
+            }
+        } else {
+            sql.append("tag = ?)");
+            args.add(tagFilter);
+        }
+    }
+
+    /**
+     * Returns the smallest string greater than every string starting with the provided prefix, so
+     * that "tag >= prefix AND tag < upper bound" matches exactly the tags starting with it. Works
+     * on code points, the order SQLite compares tags in. Trailing U+10FFFF cannot be incremented,
+     * so they are dropped first.
+     * @return the upper bound, or null if there is none (the prefix is empty or only U+10FFFF)
+     */
+    @Nullable
+    static String prefixUpperBound(String prefix) {
+        int end = prefix.length();
+        while (end > 0) {
+            int codePoint = prefix.codePointBefore(end);
+            end -= Character.charCount(codePoint);
+            if (codePoint < Character.MAX_CODE_POINT) {
+                //Surrogates are not code points of their own: skip over them.
+                int next = codePoint + 1 == Character.MIN_SURROGATE
+                        ? Character.MAX_SURROGATE + 1 : codePoint + 1;
+                return new StringBuilder(end + 2).append(prefix, 0, end).appendCodePoint(next)
+                        .toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares sort keys the same way SQLite orders "tag ASC, id ASC": null tags first, then tags
+     * by code point (the order of their UTF-8 bytes), then ids.
+     */
+    static int compareKeys(@Nullable String tag, int id, @Nullable String otherTag, int otherId) {
+        if (tag == null || otherTag == null) {
+            if (tag != otherTag) {
+                return tag == null ? -1 : 1;
+            }
+        } else {
+            int length = Math.min(tag.length(), otherTag.length());
+            for (int i = 0; i < length; ) {
+                int codePoint = tag.codePointAt(i);
+                int otherCodePoint = otherTag.codePointAt(i);
+                if (codePoint != otherCodePoint) {
+                    return codePoint < otherCodePoint ? -1 : 1;
+                }
+                i += Character.charCount(codePoint);
+            }
+            if (tag.length() != otherTag.length()) {
+                return tag.length() < otherTag.length() ? -1 : 1;
+            }
+        }
+        return Integer.compare(id, otherId);
+    }
+
+    /**
+     * The sort keys of the notes matching a tag filter, stored in (tag, id) order, along with the
+     * permutations that put them in each sort order, and the last journal entry they include.
+     * Snapshots never change once created; changes produce a patched copy.
+     */
+    static class Snapshot {
+
+        @Nullable
+        private final String tagFilter;
+        private final boolean prefixMatch;
+        private final int[] ids;
+        private final String[] tags;
+        private final long lastSeq;
+        //The ids of the notes that changed since the previous snapshot, in increasing order
+        private final int[] changedIds;
+        //Cached permutations, created the first time each sort order is requested
+        private int[] idAscendingOrder;
+
+        Snapshot(NotesQuerySpec spec, int[] ids, String[] tags, long lastSeq) {
+            this(spec.getTagFilter(), spec.isPrefixMatch(), ids, tags, lastSeq, new int[0]);
+        }
+
+        private Snapshot(@Nullable String tagFilter, boolean prefixMatch, int[] ids,
+                         String[] tags, long lastSeq, int[] changedIds) {
+            this.tagFilter = tagFilter;
+            this.prefixMatch = prefixMatch;
+            this.ids = ids;
+            this.tags = tags;
+            this.lastSeq = lastSeq;
+            this.changedIds = changedIds;
+        }
+
+        /**
+         * Returns a copy of this snapshot where the notes with the provided ids are replaced by
+         * the provided keys. The copy is made in a single merge pass, without sorting.
+         * @param changedIds the ids of every note that changed, in increasing order
+         * @param newIds the ids of the changed notes that still match the filter
+         * @param newTags their tags, in the same (tag, id) order as the ids
+         * @param lastSeq the last journal entry applied
+         */
+        Snapshot patch(int[] changedIds, int[] newIds, String[] newTags, long lastSeq) {
+            int[] ids = new int[this.ids.length + newIds.length];
+            String[] tags = new String[ids.length];
+            int size = 0;
+            int next = 0;
+
+            for (int row = 0; row < this.ids.length; row++) {
+                if (Arrays.binarySearch(changedIds, this.ids[row]) >= 0) {
+                    continue;
+                }
+                while (next < newIds.length && compareKeys(newTags[next], newIds[next],
+                        this.tags[row], this.ids[row]) < 0) {
+                    ids[size] = newIds[next];
+                    tags[size++] = newTags[next++];
+                }
+                ids[size] = this.ids[row];
+                tags[size++] = this.tags[row];
+            }
+            while (next < newIds.length) {
+                ids[size] = newIds[next];
+                tags[size++] = newTags[next++];
+            }
+
+            return new Snapshot(tagFilter, prefixMatch, Arrays.copyOf(ids, size),
+                    Arrays.copyOf(tags, size), lastSeq, changedIds);
+        }
+
+        boolean hasFilterOf(NotesQuerySpec spec) {
+            return prefixMatch == spec.isPrefixMatch() && (tagFilter == null
+                    ? spec.getTagFilter() == null : tagFilter.equals(spec.getTagFilter()));
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * Returns the ids of the notes from the provided position, in the provided sort order.
+         * @param sortChoice the sort order
+         * @param start the position of the first note
+         * @param count the maximum number of notes
+         */
+        int[] getIds(@NotesViewModel.SortChoices String sortChoice, int start, int count) {
+            int[] order = getOrder(sortChoice);
+            boolean reversed = sortChoice.equals(NotesViewModel.SORT_TAG_DESC)
+                    || sortChoice.equals(NotesViewModel.SORT_ID_DESC);
+            int end = Math.min(start + count, ids.length);
+            int[] result = new int[Math.max(0, end - start)];
+
+            //Descending orders walk the ascending permutation backwards.
+            for (int position = start; position < end; position++) {
+                int index = reversed ? ids.length - 1 - position : position;
+                result[position - start] = ids[order == null ? index : order[index]];
+            }
+
+            return result;
+        }
+
+        /**
+         * Returns the position of the note with the provided id in the provided sort order, or -1
+         * if it is not in the snapshot. Looked up with a binary search of the id order, so it
+         * takes logarithmic time in any sort order, without building another index.
+         */
+        int getPosition(@NotesViewModel.SortChoices String sortChoice, int id) {
+            int[] order = getIdAscendingOrder();
+            int low = 0;
+            int high = order.length - 1;
+
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int middleId = ids[order[middle]];
+                if (middleId < id) {
+                    low = middle + 1;
+                } else if (middleId > id) {
+                    high = middle - 1;
+                } else {
+                    //The index in the id order, or the row, which is the index in the tag order.
+                    boolean idOrder = sortChoice.equals(NotesViewModel.SORT_ID_ASC)
+                            || sortChoice.equals(NotesViewModel.SORT_ID_DESC);
+                    int index = idOrder ? middle : order[middle];
+                    boolean reversed = sortChoice.equals(NotesViewModel.SORT_TAG_DESC)
+                            || sortChoice.equals(NotesViewModel.SORT_ID_DESC);
+                    return reversed ? ids.length - 1 - index : index;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * Returns the permutation putting the rows in ascending order of the provided sort, or
+         * null if the rows are already in that order.
+         */
+        @Nullable
+        private int[] getOrder(@NotesViewModel.SortChoices String sortChoice) {
+            if (sortChoice.equals(NotesViewModel.SORT_TAG_ASC)
+                    || sortChoice.equals(NotesViewModel.SORT_TAG_DESC)) {
+                return null;
+            }
+
+            return getIdAscendingOrder();
+        }
+
+        /**
+         * Returns the permutation putting the rows in ascending id order, sorted the first time
+         * it is needed.
+         */
+        private synchronized int[] getIdAscendingOrder() {
+            if (idAscendingOrder == null) {
+                //Sort (id, row) pairs packed in longs, which avoids boxing every row.
+                long[] keys = new long[ids.length];
+                for (int row = 0; row < ids.length; row++) {
+                    keys[row] = ((long) ids[row] << 32) | row;
+                }
+                Arrays.sort(keys);
+
+                idAscendingOrder = new int[ids.length];
+                for (int i = 0; i < keys.length; i++) {
+                    idAscendingOrder[i] = (int) keys[i];
+                }
+            }
+
+            return idAscendingOrder;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.rudysolano.noted;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+
+/**
+ * One hashtag of a note. A note has one row in note_tags per distinct hashtag in its text, which
+ * makes "all notes with tag X" an index lookup. The rows are written by {@link NotesDao} whenever
+ * a note is written, and are deleted along with their note.
+ */
+@Entity(tableName = "note_tags",
+        primaryKeys = {"note_id", "tag"},
+        foreignKeys = @ForeignKey(entity = Note.class, parentColumns = "id",
+                childColumns = "note_id", onDelete = ForeignKey.CASCADE),
+        indices = {@Index(value = {"tag", "note_id"})})
+public class NoteTag {
+
+    @ColumnInfo(name = "note_id")
+    private final int noteId;
+    @NonNull
+    @ColumnInfo(name = "tag")
+    private final String tag;
+
+    //Constructor
+    public NoteTag(int noteId, @NonNull String tag) {
+        this.noteId = noteId;
+        this.tag = tag;
+    }
+
+    //Getters
+
+    public int getNoteId() {
+        return noteId;
+    }
+
+    @NonNull
+    public String getTag() {
+        return tag;
+    }
+}
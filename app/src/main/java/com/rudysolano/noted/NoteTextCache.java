@@ -0,0 +1,174 @@
+package com.rudysolano.noted;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.SpannedString;
+import android.text.style.TextAppearanceSpan;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * A bounded cache of the formatted text of notes (the preview text with its tag styled), so rows
+ * that are bound again while scrolling reuse the text formatted the first time.
+ *
+ * Entries are keyed by note id and version, so a note is formatted again once it changes. The
+ * cache is direct-mapped: each note id maps to a single slot, and a note replaces whatever note
+ * was in its slot. Unlike a map, looking up a note allocates nothing, which keeps binding rows
+ * free of garbage. Every entry shares the same tag span, whose style is resolved only once.
+ *
+ * Notes can also be prefetched: their text is formatted and measured (see
+ * {@link PrecomputedTextCompat}) on a background thread, before their row is bound. Binding a
+ * precomputed text skips the text measurement that would otherwise happen on the main thread,
+ * which is the expensive part of laying out long, multi-line notes. The cache itself is only
+ * used from the main thread; background results are posted back to it.
+ */
+public class NoteTextCache {
+
+    //Number of slots. Must be a power of two. Several screens of rows.
+    private static final int SIZE = 256;
+    //Maximum number of notes prefetched at once, so prefetched notes do not evict each other
+    static final int MAX_PREFETCH = SIZE / 2;
+    //Measures text in the background, one note at a time, in the order the rows will be shown
+    private static final Executor LAYOUT_EXECUTOR = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "notes-text-layout"));
+
+    private final TextAppearanceSpan tagSpan;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final long[] keys = new long[SIZE];
+    private final CharSequence[] texts = new CharSequence[SIZE];
+    //The key each slot is being precomputed for, or 0
+    private final long[] pendingKeys = new long[SIZE];
+    //The measuring parameters of the rows' TextView, or null until the first row is created
+    private PrecomputedTextCompat.Params textMetricsParams;
+
+    //Metrics
+    private int hitCount;
+    private int missCount;
+
+    public NoteTextCache(Context context) {
+        tagSpan = new TextAppearanceSpan(context, R.style.tag);
+    }
+
+    /**
+     * Returns the formatted text of the provided note, formatting it only if this version of the
+     * note is not cached. The text is a {@link SpannedString}, which TextView uses as it is
+     * rather than copying it.
+     */
+    @NonNull
+    public CharSequence get(@NonNull NotePreview note) {
+        long key = key(note);
+        int slot = slot(note.getId());
+
+        if (keys[slot] == key && texts[slot] != null) {
+            hitCount++;
+            return texts[slot];
+        }
+
+        missCount++;
+        CharSequence text = new SpannedString(ProcessTextUtils.formatSubstring(
+                note.getDisplayText(), note.getTag(), tagSpan));
+        keys[slot] = key;
+        texts[slot] = text;
+        return text;
+    }
+
+    /**
+     * Sets the text of the provided TextView to the formatted text of the note, using the
+     * precomputed text if the note was prefetched.
+     */
+    public void bind(@NonNull TextView textView, @NonNull NotePreview note) {
+        CharSequence text = get(note);
+
+        if (text instanceof PrecomputedTextCompat) {
+            TextViewCompat.setPrecomputedText(textView, (PrecomputedTextCompat) text);
+        } else {
+            textView.setText(text);
+        }
+    }
+
+    /**
+     * Sets the parameters text is measured with, taken from the TextView the notes are shown in.
+     * Notes can only be prefetched once they are set. Changing them drops every entry, since
+     * text precomputed with other parameters cannot be shown.
+     */
+    public void setTextMetricsParams(@NonNull PrecomputedTextCompat.Params params) {
+        if (!params.equals(textMetricsParams)) {
+            textMetricsParams = params;
+            clear();
+        }
+    }
+
+    public boolean hasTextMetricsParams() {
+        return textMetricsParams != null;
+    }
+
+    /**
+     * Formats and measures the text of the provided note on a background thread, unless it is
+     * already cached or being prefetched. The result is cached once it is ready.
+     */
+    public void prefetch(@NonNull NotePreview note) {
+        PrecomputedTextCompat.Params params = textMetricsParams;
+        long key = key(note);
+        int slot = slot(note.getId());
+
+        if (params == null || pendingKeys[slot] == key
+                || (keys[slot] == key && texts[slot] instanceof PrecomputedTextCompat)) {
+            return;
+        }
+
+        pendingKeys[slot] = key;
+        String noteText = note.getDisplayText();
+        String tag = note.getTag();
+
+        LAYOUT_EXECUTOR.execute(() -> {
+            PrecomputedTextCompat text = PrecomputedTextCompat.create(
+                    ProcessTextUtils.formatSubstring(noteText, tag, tagSpan), params);
+
+            mainHandler.post(() -> {
+                //Drop the result if the parameters changed, or the slot is used by a newer
+                // prefetch, meanwhile.
+                if (params.equals(textMetricsParams) && pendingKeys[slot] == key) {
+                    pendingKeys[slot] = 0;
+                    keys[slot] = key;
+                    texts[slot] = text;
+                }
+            });
+        });
+    }
+
+    /**
+     * Removes every entry, for example when the text style changes.
+     */
+    public void clear() {
+        for (int i = 0; i < SIZE; i++) {
+            texts[i] = null;
+            pendingKeys[i] = 0;
+        }
+    }
+
+    private static long key(NotePreview note) {
+        return ((long) note.getId() << 32) | (note.getVersion() & 0xffffffffL);
+    }
+
+    private static int slot(int id) {
+        //Consecutive ids land in consecutive slots, so a screen of rows never collides.
+        return id & (SIZE - 1);
+    }
+
+    //Getters
+
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    public int getMissCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,247 @@
+package com.rudysolano.noted;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.Single;
+import io.reactivex.SingleEmitter;
+
+/**
+ * A write-behind queue for the notes saved and deleted by the user. Writes are not run as soon as
+ * they are made: they are held for a short while, and every write made meanwhile is committed
+ * along with them in a single transaction. A burst of saves and deletes then costs one
+ * transaction commit, and one invalidation of the notes list, instead of one per write.
+ *
+ * Writes to the same note are coalesced: only the last update of a note is written, and a note
+ * that is deleted is not updated first. A batch is committed {@link #FLUSH_DELAY_MS} after its
+ * first write, or as soon as it holds {@link #MAX_BATCH_SIZE} writes. Each write completes once
+ * the batch it is part of is committed. Deletes complete with the deleted_at of the notes they
+ * deleted (see {@link NotesDao#restoreNotes(long)}). Each delete is run as its own statement within
+ * the batch, so it gets its own deleted_at, and undoing it does not restore the notes of the other
+ * deletes of the batch.
+ *
+ * The queue holds at most {@link #MAX_PENDING} writes. Once it is full, new writes wait for the
+ * current batch to be committed, which keeps a fast producer from growing the queue without
+ * bound. Writes must therefore be subscribed to off the main thread.
+ */
+public class NoteWriteQueue {
+
+    private static final String TAG = "NoteWriteQueue";
+
+    //How long a write waits for more writes before its batch is committed
+    static final long FLUSH_DELAY_MS = 200;
+    //Number of writes that makes a batch be committed without waiting
+    static final int MAX_BATCH_SIZE = 500;
+    //Number of writes above which new writes wait
+    static final int MAX_PENDING = MAX_BATCH_SIZE * 4;
+
+    private final NotesDatabase database;
+    private final NotesDao notesDao;
+    //Commits the batches, one at a time
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            runnable -> new Thread(runnable, "notes-write"));
+
+    //The batch being filled, guarded by this
+    private List<Note> inserts = new ArrayList<>();
+    private Map<Integer, Note> updates = new LinkedHashMap<>();
+    //Every id queued to be deleted, so later updates of these notes are dropped
+    private Set<Long> deletes = new LinkedHashSet<>();
+    //The ids of each delete, in the same order as their emitters
+    private List<long[]> deleteRequests = new ArrayList<>();
+    private List<CompletableEmitter> emitters = new ArrayList<>();
+    private List<SingleEmitter<Long>> deleteEmitters = new ArrayList<>();
+    private int pendingCount;
+    private boolean flushScheduled;
+
+    //Metrics
+    private volatile int batchCount;
+    private volatile int writeCount;
+
+    NoteWriteQueue(NotesDatabase database) {
+        this.database = database;
+        this.notesDao = database.notesDao();
+    }
+
+    /**
+     * Queues the insertion of the provided note.
+     */
+    public Completable insert(@NonNull Note note) {
+        return Completable.create(emitter -> {
+            synchronized (this) {
+                awaitCapacity();
+                inserts.add(note);
+                emitters.add(emitter);
+                enqueued();
+            }
+        });
+    }
+
+    /**
+     * Queues the update of the provided note. Replaces any update of the same note that is still
+     * queued. Does nothing if the note is queued to be deleted.
+     */
+    public Completable update(@NonNull Note note) {
+        return Completable.create(emitter -> {
+            synchronized (this) {
+                awaitCapacity();
+                if (!deletes.contains((long) note.getId())) {
+                    updates.put(note.getId(), note);
+                }
+                emitters.add(emitter);
+                enqueued();
+            }
+        });
+    }
+
+    /**
+     * Queues the deletion of the notes with the provided ids. Drops any update of these notes
+     * that is still queued.
+     * @return the deleted_at of the deleted notes, once they are deleted
+     */
+    public Single<Long> delete(@NonNull long[] ids) {
+        return Single.create(emitter -> {
+            synchronized (this) {
+                awaitCapacity();
+                for (long id : ids) {
+                    updates.remove((int) id);
+                    deletes.add(id);
+                }
+                deleteRequests.add(ids);
+                deleteEmitters.add(emitter);
+                enqueued();
+            }
+        });
+    }
+
+    /**
+     * Commits the queued writes now, rather than after the flush delay. Used when the app goes to
+     * the background, where the process may be killed before the delay is over. Completes once
+     * every write queued before the call is committed.
+     */
+    public Completable flush() {
+        return Completable.create(emitter -> {
+            synchronized (this) {
+                emitters.add(emitter);
+                flushScheduled = true;
+                executor.execute(this::commitBatch);
+            }
+        });
+    }
+
+    /**
+     * Blocks the calling thread until the queue has room for another write.
+     */
+    private void awaitCapacity() throws InterruptedException {
+        while (pendingCount >= MAX_PENDING) {
+            wait();
+        }
+    }
+
+    /**
+     * Counts a write that was just added to the batch, along with its emitter, and schedules the
+     * batch to be committed.
+     */
+    private void enqueued() {
+        pendingCount++;
+
+        if (pendingCount >= MAX_BATCH_SIZE) {
+            flushScheduled = true;
+            executor.execute(this::commitBatch);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            executor.schedule(this::commitBatch, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Takes the current batch and commits it in a single transaction, then completes the writes
+     * it holds. Only runs on the write thread.
+     */
+    private void commitBatch() {
+        List<Note> batchInserts;
+        Map<Integer, Note> batchUpdates;
+        List<long[]> batchDeleteRequests;
+        List<CompletableEmitter> batchEmitters;
+        List<SingleEmitter<Long>> batchDeleteEmitters;
+        int batchSize;
+
+        synchronized (this) {
+            if (emitters.isEmpty() && deleteEmitters.isEmpty()) {
+                //Already committed by an earlier run.
+                return;
+            }
+
+            batchInserts = inserts;
+            batchUpdates = updates;
+            batchDeleteRequests = deleteRequests;
+            batchEmitters = emitters;
+            batchDeleteEmitters = deleteEmitters;
+            batchSize = pendingCount;
+            inserts = new ArrayList<>();
+            updates = new LinkedHashMap<>();
+            deletes = new LinkedHashSet<>();
+            deleteRequests = new ArrayList<>();
+            emitters = new ArrayList<>();
+            deleteEmitters = new ArrayList<>();
+            pendingCount = 0;
+            flushScheduled = false;
+            notifyAll();
+        }
+
+        long[] deletedAts = new long[batchDeleteRequests.size()];
+        try {
+            database.runInTransaction(() -> {
+                for (int i = 0; i < deletedAts.length; i++) {
+                    deletedAts[i] = notesDao.deleteNotesByIdBlocking(batchDeleteRequests.get(i));
+                }
+                if (!batchUpdates.isEmpty()) {
+                    notesDao.updateNotesBlocking(new ArrayList<>(batchUpdates.values()));
+                }
+                if (!batchInserts.isEmpty()) {
+                    notesDao.insertNotesBlocking(batchInserts);
+                }
+            });
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not commit a batch of " + batchSize + " writes", e);
+            for (CompletableEmitter emitter : batchEmitters) {
+                emitter.tryOnError(e);
+            }
+            for (SingleEmitter<Long> emitter : batchDeleteEmitters) {
+                emitter.tryOnError(e);
+            }
+            return;
+        }
+
+        batchCount++;
+        writeCount += batchSize;
+        for (CompletableEmitter emitter : batchEmitters) {
+            emitter.onComplete();
+        }
+        for (int i = 0; i < deletedAts.length; i++) {
+            batchDeleteEmitters.get(i).onSuccess(deletedAts[i]);
+        }
+    }
+
+    //Getters
+
+    public int getBatchCount() {
+        return batchCount;
+    }
+
+    public int getWriteCount() {
+        return writeCount;
+    }
+}
@@ -0,0 +1,49 @@
+package com.rudysolano.noted;
+
+import android.app.Application;
+import android.os.SystemClock;
+import android.util.Log;
+
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Starts opening the notes database as soon as the process starts, on a background thread, so
+ * the file open, the migrations and the first page of notes are ready (or well under way) by the
+ * time {@link MainActivity} asks for them. Also measures how long after the start of the process
+ * the database is ready and the first notes are drawn, and logs both. The same points show in
+ * system traces, as the "warmUp" section and the activity's "Fully drawn" time.
+ */
+public class NotedApplication extends Application {
+
+    private static final String TAG = "NotedApplication";
+
+    //When the application was created, in SystemClock.uptimeMillis() time
+    private long startUptimeMs;
+    //True once the time to the first notes drawn was logged, so it is only logged once per process
+    private boolean firstNotesDrawn;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        startUptimeMs = SystemClock.uptimeMillis();
+
+        //Only creates the database object here. The database is opened by the warm-up.
+        NotesRepository.getInstance(this).warmUp(NotesViewModel.DEFAULT_QUERY_SPEC)
+                .subscribeOn(Schedulers.io())
+                .subscribe(() -> Log.i(TAG, "Database ready "
+                                + (SystemClock.uptimeMillis() - startUptimeMs) + " ms after start"),
+                        throwable -> Log.e(TAG, "Could not warm up the database", throwable));
+    }
+
+    /**
+     * Called once notes are about to be drawn on screen. Logs the time since the application was
+     * created the first time it is called.
+     */
+    void onFirstNotesDrawn() {
+        if (!firstNotesDrawn) {
+            firstNotesDrawn = true;
+            Log.i(TAG, "First notes drawn " + (SystemClock.uptimeMillis() - startUptimeMs)
+                    + " ms after start");
+        }
+    }
+}
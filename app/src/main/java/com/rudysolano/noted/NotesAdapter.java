@@ -8,33 +8,74 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
-import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.view.ActionMode;
+import androidx.core.widget.TextViewCompat;
+import androidx.paging.PagedList;
+import androidx.paging.PagedListAdapter;
+import androidx.recyclerview.widget.AsyncDifferConfig;
 import androidx.recyclerview.widget.DiffUtil;
-import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
-import io.reactivex.CompletableObserver;
+import com.google.android.material.snackbar.Snackbar;
+
+import java.util.List;
+
+import io.reactivex.Single;
+import io.reactivex.SingleObserver;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 
-public class NotesAdapter extends ListAdapter<Note, NotesAdapter.ViewHolder> {
+public class NotesAdapter extends PagedListAdapter<NotePreview, NotesAdapter.ViewHolder> {
 
     private static OnNoteClickListener mListener;
     private Context context;
+    //The list showing the notes, which the undo snackbar is shown from
+    private RecyclerView recyclerView;
+    private NoteTextCache textCache;
     final MultiChoiceHelper multiChoiceHelper;
 
     protected NotesAdapter(AppCompatActivity activity, NotesViewModel notesViewModel) {
-        super(DIFF_CALLBACK);
+        //Compute diffs on the dedicated, timed executor rather than the shared default one.
+        super(new AsyncDifferConfig.Builder<>(DIFF_CALLBACK)
+                .setBackgroundThreadExecutor(notesViewModel.getDiffExecutor())
+                .build());
 
         setHasStableIds(true);
 
-        //Initialize class that makes multi-choice functionality possible
+        //Initialize class that makes multi-choice functionality possible. Only some pages of
+        // notes are loaded at a time, so select all covers every note of the current data
+        // source rather than only the loaded ones.
         multiChoiceHelper = new MultiChoiceHelper(activity, this);
+        multiChoiceHelper.setItemSource(new MultiChoiceHelper.ItemSource() {
+            @Override
+            public int getItemCount() {
+                NotesDataSource dataSource = getCurrentDataSource();
+                return dataSource == null ? 0 : dataSource.getTotalCount();
+            }
+
+            @Override
+            public long[] getItemIds() {
+                NotesDataSource dataSource = getCurrentDataSource();
+                int[] ids = dataSource == null ? new int[0] : dataSource.getAllIds();
+                long[] itemIds = new long[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    itemIds[i] = ids[i];
+                }
+                return itemIds;
+            }
+
+            @Override
+            public int getItemPosition(long id) {
+                NotesDataSource dataSource = getCurrentDataSource();
+                int position = dataSource == null ? -1 : dataSource.getPosition((int) id);
+                return position == -1 ? RecyclerView.NO_POSITION : position;
+            }
+        });
         //Implement a listener to define what happens in multi-choice mode
         multiChoiceHelper.setMultiChoiceModeListener(new MultiChoiceHelper.MultiChoiceModeListener() {
             /**
@@ -77,8 +118,9 @@ public class NotesAdapter extends ListAdapter<Note, NotesAdapter.ViewHolder> {
             }
 
             /**
-             * Called to handle menu button clicks in the current ActionMode. The only menu
-             * option is a delete option, the the callback handles deleting all activated notes.
+             * Called to handle menu button clicks in the current ActionMode. The callback
+             * handles deleting all activated notes, selecting all notes and inverting the
+             * selection.
              * @param mode The current ActionMode
              * @param item The item that was clicked
              * @return true if this callback handled the event, false if the standard MenuItem
@@ -86,15 +128,30 @@ public class NotesAdapter extends ListAdapter<Note, NotesAdapter.ViewHolder> {
              */
             @Override
             public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
-                if (item.getItemId() == R.id.delete) {
-                    //Get the ids for all records that were selected
-                    long[] selectedRecordIds = multiChoiceHelper.getActivatedItemIds();
-
-                    //Call ViewModel to delete records
-                    notesViewModel.deleteNotesById(selectedRecordIds)
-                            .subscribeOn(Schedulers.io())
+                if (item.getItemId() == R.id.select_all) {
+                    multiChoiceHelper.selectAll();
+                    return true;
+                } else if (item.getItemId() == R.id.invert_selection) {
+                    multiChoiceHelper.invertChoices();
+                    return true;
+                } else if (item.getItemId() == R.id.delete) {
+                    //Call ViewModel to delete records. A selection made with select all is
+                    // deleted as every note in the list except the ones deselected, without
+                    // listing the ids of the selected notes. The delete can be undone from a
+                    // snackbar until it goes away.
+                    Single<Long> delete;
+                    NotesDataSource dataSource = getCurrentDataSource();
+                    if (multiChoiceHelper.isInverted() && dataSource != null) {
+                        delete = notesViewModel.deleteNotesExcept(dataSource.getSpec(),
+                                multiChoiceHelper.getExceptionIds());
+                    } else {
+                        delete = notesViewModel.deleteNotesById(
+                                multiChoiceHelper.getActivatedItemIds());
+                    }
+
+                    delete.subscribeOn(Schedulers.io())
                             .observeOn(AndroidSchedulers.mainThread())
-                            .subscribe(new CompletableObserver() {
+                            .subscribe(new SingleObserver<Long>() {
 
                                 @Override
                                 public void onSubscribe(
@@ -103,9 +160,19 @@ public class NotesAdapter extends ListAdapter<Note, NotesAdapter.ViewHolder> {
                                 }
 
                                 @Override
-                                public void onComplete() {
-                                    Toast.makeText(context, R.string.selected_notes_deleted,
-                                            Toast.LENGTH_SHORT).show();
+                                public void onSuccess(
+                                        @io.reactivex.annotations.NonNull Long deletedAt) {
+                                    if (recyclerView == null) {
+                                        return;
+                                    }
+                                    Snackbar.make(recyclerView, R.string.selected_notes_deleted,
+                                            Snackbar.LENGTH_LONG)
+                                            .setAction(R.string.undo_button, view ->
+                                                    notesViewModel.restoreNotes(deletedAt)
+                                                            .subscribeOn(Schedulers.io())
+                                                            .onErrorComplete()
+                                                            .subscribe())
+                                            .show();
                                 }
 
                                 @Override
@@ -142,18 +209,23 @@ public class NotesAdapter extends ListAdapter<Note, NotesAdapter.ViewHolder> {
         });
     }
 
-    private static final DiffUtil.ItemCallback<Note> DIFF_CALLBACK =
-            new DiffUtil.ItemCallback<Note>() {
+    private static final DiffUtil.ItemCallback<NotePreview> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<NotePreview>() {
 
                 @Override
-                public boolean areItemsTheSame(@NonNull Note oldItem, @NonNull Note newItem) {
+                public boolean areItemsTheSame(@NonNull NotePreview oldItem,
+                                               @NonNull NotePreview newItem) {
                     return oldItem.getId() == newItem.getId();
                 }
 
+                /**
+                 * Compares the versions, rather than the whole text of both notes. The version of
+                 * a note only changes when its content hash does.
+                 */
                 @Override
-                public boolean areContentsTheSame(@NonNull Note oldItem, @NonNull Note newItem) {
-                    return oldItem.getNoteText().equals(newItem.getNoteText())
-                            && oldItem.getTag().equals(newItem.getTag());
+                public boolean areContentsTheSame(@NonNull NotePreview oldItem,
+                                                  @NonNull NotePreview newItem) {
+                    return oldItem.getVersion() == newItem.getVersion();
                 }
             };
 
@@ -185,8 +257,15 @@ public class NotesAdapter extends ListAdapter<Note, NotesAdapter.ViewHolder> {
     public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View itemView = LayoutInflater.from(parent.getContext()).inflate(R.layout.note_list_item,
                 parent, false);
+        NotesAdapter.ViewHolder holder = new NotesAdapter.ViewHolder(itemView);
+
+        //Every row has the same text style, so the first row tells how to measure all notes.
+        if (!textCache.hasTextMetricsParams()) {
+            textCache.setTextMetricsParams(TextViewCompat.getTextMetricsParams(holder.mTextView));
+            prefetchText(getCurrentList(), 0, NoteTextCache.MAX_PREFETCH);
+        }
 
-        return new NotesAdapter.ViewHolder(itemView);
+        return holder;
     }
 
     /**
@@ -196,28 +275,102 @@ public class NotesAdapter extends ListAdapter<Note, NotesAdapter.ViewHolder> {
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
         //Get the next Note item and it's column values.
-        Note note = getItem(position);
-        String noteText = note.getNoteText();
-        String tag = note.getTag();
+        NotePreview note = getItem(position);
 
-        //Populate ViewHolder TextView with note text, with a formatted tag.
-        holder.mTextView.setText(ProcessTextUtils.formatSubstring(noteText, tag, context));
+        //Populate ViewHolder TextView with note text, with a formatted tag. The formatted text
+        // is cached, so rows bound again while scrolling are not formatted again, and is usually
+        // already measured, since rows are prefetched as pages are loaded.
+        textCache.bind(holder.mTextView, note);
 
         // Enable MultiChoice selection and update checked state
         holder.bind(multiChoiceHelper, position);
     }
 
     /**
-     * Override to obtain context.
+     * Override to obtain context, which the formatted text cache needs to resolve the tag style,
+     * and the list, which the undo snackbar is shown from.
      */
     @Override
     public void onAttachedToRecyclerView(RecyclerView recyclerView) {
         super.onAttachedToRecyclerView(recyclerView);
+        this.recyclerView = recyclerView;
         context = recyclerView.getContext();
+        textCache = new NoteTextCache(context);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        this.recyclerView = null;
+    }
+
+    /**
+     * Starts measuring the text of the notes in a new list in the background, and registers to
+     * do the same for every page loaded later.
+     */
+    @Override
+    public void onCurrentListChanged(@Nullable PagedList<NotePreview> previousList,
+                                     @Nullable PagedList<NotePreview> currentList) {
+        super.onCurrentListChanged(previousList, currentList);
+
+        if (previousList != null) {
+            previousList.removeWeakCallback(pageCallback);
+        }
+        if (currentList != null) {
+            currentList.addWeakCallback(null, pageCallback);
+            prefetchText(currentList, 0, NoteTextCache.MAX_PREFETCH);
+        }
+    }
+
+    /**
+     * Prefetches the text of the loaded notes in the provided range of the list.
+     */
+    private void prefetchText(@Nullable PagedList<NotePreview> list, int start, int count) {
+        if (list == null || textCache == null) {
+            return;
+        }
+
+        //A snapshot can be read without triggering more page loads.
+        List<NotePreview> notes = list.snapshot();
+        int end = Math.min(start + Math.min(count, NoteTextCache.MAX_PREFETCH), notes.size());
+        for (int i = start; i < end; i++) {
+            NotePreview note = notes.get(i);
+            if (note != null) {
+                textCache.prefetch(note);
+            }
+        }
+    }
+
+    //Prefetches the text of every page as soon as it is loaded, before its rows are shown.
+    private final PagedList.Callback pageCallback = new PagedList.Callback() {
+        @Override
+        public void onInserted(int position, int count) {
+            prefetchText(getCurrentList(), position, count);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            prefetchText(getCurrentList(), position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            //do nothing
+        }
+    };
+
+    /**
+     * Returns the data source of the current list, which knows about every note in the list,
+     * loaded or not.
+     */
+    @Nullable
+    private NotesDataSource getCurrentDataSource() {
+        PagedList<NotePreview> list = getCurrentList();
+        return list == null ? null : (NotesDataSource) list.getDataSource();
     }
 
     public interface OnNoteClickListener {
-        void onNoteClick(Note note);
+        void onNoteClick(NotePreview note);
     }
 
     public void setOnNoteClickListener(OnNoteClickListener listener) {
@@ -0,0 +1,198 @@
+package com.rudysolano.noted;
+
+import android.database.Cursor;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Writes and reads backups of the notes database. A backup is a UTF-8 NDJSON file: one JSON object
+ * per line, one line per note, for example:
+ *
+ * {"id":1,"tag":"buy","note_text":"I need to #buy new t-shirts","updated_at":1700000000000,
+ * "version":2}
+ *
+ * (on a single line). The updated_at and version are informational, for readers that sync
+ * changes; they are ignored when a backup is imported, since imported notes are new notes.
+ *
+ * Both directions stream one note at a time, so memory use stays the same no matter how many notes
+ * are in the backup. Note text and tags may be null, which is written as JSON null.
+ */
+public class NotesBackup {
+
+    private static final String KEY_ID = "id";
+    private static final String KEY_TAG = "tag";
+    private static final String KEY_NOTE_TEXT = "note_text";
+    private static final String KEY_UPDATED_AT = "updated_at";
+    private static final String KEY_VERSION = "version";
+    private static final String CHARSET = "UTF-8";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char REPLACEMENT_CHARACTER = '\ufffd';
+
+    private NotesBackup() {
+        //no instances
+    }
+
+    /**
+     * Writes every row of the provided cursor to the channel, one note per line. The cursor is
+     * read from start to end but is not closed.
+     * @param cursor a cursor over notes_table
+     * @param channel the channel to write the backup to
+     * @return the number of notes written
+     */
+    public static int write(Cursor cursor, WritableByteChannel channel) throws IOException {
+        int idColumn = cursor.getColumnIndexOrThrow(KEY_ID);
+        int tagColumn = cursor.getColumnIndexOrThrow(KEY_TAG);
+        int textColumn = cursor.getColumnIndexOrThrow(KEY_NOTE_TEXT);
+        int updatedAtColumn = cursor.getColumnIndexOrThrow(KEY_UPDATED_AT);
+        int versionColumn = cursor.getColumnIndexOrThrow(KEY_VERSION);
+        int count = 0;
+
+        Writer writer = new BufferedWriter(Channels.newWriter(channel, CHARSET), BUFFER_SIZE);
+
+        while (cursor.moveToNext()) {
+            writer.write("{\"" + KEY_ID + "\":");
+            writer.write(Long.toString(cursor.getLong(idColumn)));
+            writer.write(",\"" + KEY_TAG + "\":");
+            writeString(writer, cursor.getString(tagColumn));
+            writer.write(",\"" + KEY_NOTE_TEXT + "\":");
+            writeString(writer, cursor.getString(textColumn));
+            writer.write(",\"" + KEY_UPDATED_AT + "\":");
+            writer.write(Long.toString(cursor.getLong(updatedAtColumn)));
+            writer.write(",\"" + KEY_VERSION + "\":");
+            writer.write(Integer.toString(cursor.getInt(versionColumn)));
+            writer.write("}\n");
+            count++;
+        }
+
+        writer.flush();
+
+        return count;
+    }
+
+    /**
+     * Returns an iterator over the notes in a backup. Notes are parsed lazily, one line at a time,
+     * as the iterator is advanced. The notes are returned without their ids, so importing them
+     * never overwrites existing notes. Reading or parsing errors are thrown as a
+     * {@link BackupFormatException} from {@link Iterator#next()}.
+     * @param channel the channel to read the backup from
+     */
+    public static Iterator<Note> read(ReadableByteChannel channel) {
+        BufferedReader reader = new BufferedReader(Channels.newReader(channel, CHARSET),
+                BUFFER_SIZE);
+
+        return new Iterator<Note>() {
+            private String nextLine = readLine();
+
+            @Override
+            public boolean hasNext() {
+                return nextLine != null;
+            }
+
+            @Override
+            public Note next() {
+                if (nextLine == null) {
+                    throw new NoSuchElementException();
+                }
+
+                try {
+                    JSONObject json = new JSONObject(nextLine);
+                    Note note = new Note(getNullableString(json, KEY_NOTE_TEXT),
+                            getNullableString(json, KEY_TAG));
+                    nextLine = readLine();
+                    return note;
+                } catch (JSONException e) {
+                    throw new BackupFormatException(e);
+                }
+            }
+
+            private String readLine() {
+                try {
+                    String line;
+                    //Skip blank lines, such as a trailing newline at the end of the file.
+                    do {
+                        line = reader.readLine();
+                    } while (line != null && line.trim().isEmpty());
+                    return line;
+                } catch (IOException e) {
+                    throw new BackupFormatException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the string value of the provided key, or null if the value is JSON null (which
+     * {@link JSONObject#getString} would return as "null").
+     */
+    private static String getNullableString(JSONObject json, String key) throws JSONException {
+        return json.has(key) && json.isNull(key) ? null : json.getString(key);
+    }
+
+    /**
+     * Writes the provided string as a JSON string literal. Unpaired surrogates cannot be encoded
+     * in UTF-8, so they are replaced with U+FFFD.
+     */
+    private static void writeString(Writer writer, String string) throws IOException {
+        if (string == null) {
+            writer.write("null");
+            return;
+        }
+
+        writer.write('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+                            && Character.isLowSurrogate(string.charAt(i + 1))) {
+                        writer.write(c);
+                        writer.write(string.charAt(++i));
+                    } else if (Character.isSurrogate(c)) {
+                        writer.write(REPLACEMENT_CHARACTER);
+                    } else {
+                        writer.write(c);
+                    }
+                    break;
+            }
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Thrown when a backup cannot be read or is not in the expected format.
+     */
+    public static class BackupFormatException extends RuntimeException {
+        BackupFormatException(Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -1,45 +1,477 @@
 package com.rudysolano.noted;
 
+import android.database.Cursor;
+
 import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
-import androidx.room.Update;
+import androidx.room.RoomDatabase;
+import androidx.room.Transaction;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
 
 /**
  * DAO class. Defines all database operations and provides a SQLite database abstraction layer.
+ * Declared as an abstract class (rather than an interface) so that operations made of several
+ * statements can be implemented here and run in a single transaction.
  */
 @Dao
-public interface NotesDao {
+public abstract class NotesDao {
+
+    //Number of ids bound per delete statement, below the limit of 999 arguments of older SQLite
+    // versions
+    static final int DELETE_CHUNK_SIZE = 500;
+
+    //Used by the deletes that are built at runtime
+    private final RoomDatabase database;
+
+    NotesDao(RoomDatabase database) {
+        this.database = database;
+    }
+
+    /*
+     * Write operations. Every write also updates the note's rows in note_tags, so the tags of a
+     * note always match the hashtags in its text, and sets its version and updated_at (see
+     * Note). All the notes written in one transaction share the same updated_at.
+     */
+
+    public Completable insertNote(Note note) {
+        return Completable.fromAction(() -> insertNotesBlocking(Collections.singletonList(note)));
+    }
+
+    /**
+     * Inserts all the provided notes in a single transaction.
+     */
+    public Completable insertNotes(List<Note> notes) {
+        return Completable.fromAction(() -> insertNotesBlocking(notes));
+    }
+
+    /**
+     * Blocking version of {@link #insertNotes(List)}, for callers that are already on a background
+     * thread and need to know when each batch is committed.
+     */
+    @Transaction
+    public void insertNotesBlocking(List<Note> notes) {
+        setFirstVersion(notes, nextUpdatedAt());
+        long[] rowIds = insertNoteRows(notes);
+
+        for (int i = 0; i < rowIds.length; i++) {
+            insertTags((int) rowIds[i], notes.get(i));
+        }
+    }
+
+    /**
+     * Inserts a large number of notes, committing them in transactions of the provided size. Notes
+     * are pulled from the iterator as they are needed, so only one chunk is held in memory at a
+     * time, and the number of (slow) transaction commits is divided by the chunk size.
+     *
+     * Each chunk is committed on its own: if reading or inserting a note fails partway through,
+     * the exception is thrown, but the chunks inserted before stay in the database.
+     * @param notes the notes to insert
+     * @param chunkSize the number of notes inserted per transaction
+     * @return the number of notes that were inserted
+     */
+    int importNotesBlocking(Iterator<Note> notes, int chunkSize) {
+        List<Note> chunk = new ArrayList<>(chunkSize);
+        int count = 0;
+
+        while (notes.hasNext()) {
+            chunk.add(notes.next());
+
+            if (chunk.size() == chunkSize || !notes.hasNext()) {
+                insertNotesBlocking(chunk);
+                count += chunk.size();
+                chunk.clear();
+            }
+        }
+
+        return count;
+    }
+
+    public Completable updateNote(Note note) {
+        return Completable.fromAction(() -> updateNotesBlocking(Collections.singletonList(note)));
+    }
+
+    /**
+     * Updates the provided notes in a single transaction. Notes whose content hash did not change
+     * are left as they are, so saving an unchanged note does not change its version, and does
+     * not rewrite the full-text index or the change journal.
+     */
+    @Transaction
+    void updateNotesBlocking(List<Note> notes) {
+        long updatedAt = nextUpdatedAt();
+
+        for (Note note : notes) {
+            if (updateNoteRow(note.getId(), note.getNoteText(), note.getTag(),
+                    note.getContentHash(), updatedAt) > 0) {
+                deleteTags(note.getId());
+                insertTags(note.getId(), note);
+            }
+        }
+    }
+
+    /**
+     * Inserts the provided notes, or updates the ones whose id already exists, in a single
+     * transaction. This is done with an insert followed by an update rather than with
+     * {@link OnConflictStrategy#REPLACE}, since a replace deletes the old row without running the
+     * delete triggers that keep the full-text index in sync.
+     */
+    public Completable upsertNotes(List<Note> notes) {
+        return Completable.fromAction(() -> upsertNotesBlocking(notes));
+    }
+
+    @Transaction
+    public void upsertNotesBlocking(List<Note> notes) {
+        setFirstVersion(notes, nextUpdatedAt());
+        long[] rowIds = insertNoteRowsOrIgnore(notes);
+        List<Note> existingNotes = new ArrayList<>();
+
+        //Inserts that were ignored return -1, since a note with that id already exists.
+        for (int i = 0; i < rowIds.length; i++) {
+            if (rowIds[i] == -1) {
+                existingNotes.add(notes.get(i));
+            } else {
+                insertTags((int) rowIds[i], notes.get(i));
+            }
+        }
+
+        if (!existingNotes.isEmpty()) {
+            updateNotesBlocking(existingNotes);
+        }
+    }
+
+    private static void setFirstVersion(List<Note> notes, long updatedAt) {
+        for (Note note : notes) {
+            note.setVersion(1);
+            note.setUpdatedAt(updatedAt);
+        }
+    }
+
+    /**
+     * Returns the updated_at to use for the current write transaction: the current time, or just
+     * after the latest updated_at in the table if the clock has not moved past it (two writes in
+     * the same millisecond, or a clock set back). This keeps updated_at strictly increasing from
+     * one transaction to the next, so it can be used as a checkpoint.
+     */
+    private long nextUpdatedAt() {
+        return Math.max(System.currentTimeMillis(), getLastUpdatedAt() + 1);
+    }
+
+    private void insertTags(int noteId, Note note) {
+        List<String> tags = HashtagScanner.findTags(note.getNoteText());
+        List<NoteTag> noteTags = new ArrayList<>(tags.size());
+
+        for (String tag : tags) {
+            noteTags.add(new NoteTag(noteId, tag));
+        }
+
+        insertTagRows(noteTags);
+    }
 
     @Insert
-    Completable insertNote(Note note);
+    abstract long[] insertNoteRows(List<Note> notes);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    abstract long[] insertNoteRowsOrIgnore(List<Note> notes);
+
+    @Query("UPDATE notes_table SET note_text = :noteText, tag = :tag, " +
+            "content_hash = :contentHash, updated_at = :updatedAt, version = version + 1 " +
+            "WHERE id = :id AND deleted_at = 0 AND content_hash != :contentHash")
+    abstract int updateNoteRow(int id, String noteText, String tag, long contentHash,
+                               long updatedAt);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    abstract void insertTagRows(List<NoteTag> noteTags);
+
+    @Query("DELETE FROM note_tags WHERE note_id = :noteId")
+    abstract void deleteTags(int noteId);
+
+    /*
+     * Deletes. A deleted note is not removed right away: its deleted_at is set, which hides it
+     * from every query, and it is only removed by purgeDeletedNotesBlocking() once it can no
+     * longer be restored. Every delete returns the deleted_at it set, which restoreNotes() takes
+     * to bring back the notes it deleted. Notes that are already deleted are left as they are.
+     */
+
+    /**
+     * Deletes every note.
+     * @return the deleted_at of the deleted notes
+     */
+    public Single<Long> deleteAllNotes() {
+        return Single.fromCallable(this::deleteAllNotesBlocking);
+    }
 
-    @Update
-    Completable updateNote(Note note);
+    @Transaction
+    long deleteAllNotesBlocking() {
+        long deletedAt = nextDeletedAt();
+        markAllNotesDeleted(deletedAt);
+        return deletedAt;
+    }
 
-    @Query("DELETE FROM notes_table")
-    Completable deleteAllNotes();
+    @Query("UPDATE notes_table SET deleted_at = :deletedAt WHERE deleted_at = 0")
+    abstract void markAllNotesDeleted(long deletedAt);
+
+    public Single<Long> deleteNotesById(long[] ids) {
+        return Single.fromCallable(() -> deleteNotesByIdBlocking(ids));
+    }
+
+    /**
+     * Deletes the notes with the provided ids in a single transaction, binding at most
+     * {@link #DELETE_CHUNK_SIZE} ids per statement, so any number of ids can be deleted.
+     * @return the deleted_at of the deleted notes
+     */
+    @Transaction
+    long deleteNotesByIdBlocking(long[] ids) {
+        long deletedAt = nextDeletedAt();
+        for (int start = 0; start < ids.length; start += DELETE_CHUNK_SIZE) {
+            markNotesDeleted(Arrays.copyOfRange(ids, start,
+                    Math.min(start + DELETE_CHUNK_SIZE, ids.length)), deletedAt);
+        }
+        return deletedAt;
+    }
+
+    @Query("UPDATE notes_table SET deleted_at = :deletedAt WHERE id IN (:ids) AND deleted_at = 0")
+    abstract void markNotesDeleted(long[] ids, long deletedAt);
+
+    /**
+     * Deletes every note matching the tag filter of the provided spec (every note if it has
+     * none), except the notes with the provided ids, in a single transaction. The ids to keep
+     * are written to a temporary table rather than bound to the statement, so there can be any
+     * number of them, and the notes are deleted by a single statement.
+     * @return the deleted_at of the deleted notes
+     */
+    @Transaction
+    long deleteNotesExceptBlocking(NotesQuerySpec spec, long[] keptIds) {
+        SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        db.execSQL("CREATE TEMP TABLE IF NOT EXISTS `kept_note_ids` (`id` INTEGER PRIMARY KEY)");
+        db.execSQL("DELETE FROM `kept_note_ids`");
+
+        try {
+            SupportSQLiteStatement insert = db.compileStatement(
+                    "INSERT OR IGNORE INTO `kept_note_ids` VALUES (?)");
+            for (long id : keptIds) {
+                insert.bindLong(1, id);
+                insert.executeInsert();
+            }
+
+            long deletedAt = nextDeletedAt();
+            StringBuilder sql = new StringBuilder("UPDATE notes_table SET deleted_at = ")
+                    .append(deletedAt).append(" WHERE deleted_at = 0 AND ");
+            List<Object> args = new ArrayList<>();
+            if (spec.getTagFilter() != null) {
+                NoteSortEngine.appendTagFilter(spec, sql, args);
+                sql.append(" AND ");
+            }
+            sql.append("id NOT IN (SELECT id FROM `kept_note_ids`)");
+
+            SupportSQLiteStatement delete = db.compileStatement(sql.toString());
+            for (int i = 0; i < args.size(); i++) {
+                delete.bindString(i + 1, (String) args.get(i));
+            }
+            delete.executeUpdateDelete();
+            return deletedAt;
+        } finally {
+            db.execSQL("DELETE FROM `kept_note_ids`");
+        }
+    }
+
+    /**
+     * Returns the deleted_at to use for the current delete: the current time, or just after the
+     * latest deleted_at in the table, so every delete has its own and can be undone on its own.
+     */
+    private long nextDeletedAt() {
+        return Math.max(System.currentTimeMillis(), getLastDeletedAt() + 1);
+    }
+
+    @Query("SELECT IFNULL(MAX(deleted_at), 0) FROM notes_table")
+    abstract long getLastDeletedAt();
+
+    /**
+     * Restores the notes deleted by the delete that returned the provided deleted_at. The
+     * triggers count their tags again.
+     */
+    @Query("UPDATE notes_table SET deleted_at = 0 WHERE deleted_at = :deletedAt")
+    public abstract Completable restoreNotes(long deletedAt);
+
+    /**
+     * Removes the notes deleted before the provided time, at most {@link #DELETE_CHUNK_SIZE} at a
+     * time, each batch in its own transaction, so the database is never locked for long. The
+     * tags of a note are removed before the note itself, while it is still marked as deleted,
+     * so they are not counted down a second time.
+     * @return the number of notes removed
+     */
+    int purgeDeletedNotesBlocking(long deletedBefore) {
+        int purged = 0;
+        int batchSize;
+
+        do {
+            batchSize = database.runInTransaction(() -> {
+                long[] ids = getDeletedNoteIds(deletedBefore, DELETE_CHUNK_SIZE);
+                if (ids.length > 0) {
+                    deleteTagsOfNotes(ids);
+                    deleteNoteRows(ids);
+                }
+                return ids.length;
+            });
+            purged += batchSize;
+        } while (batchSize == DELETE_CHUNK_SIZE);
+
+        return purged;
+    }
+
+    @Query("SELECT id FROM notes_table WHERE deleted_at BETWEEN 1 AND :deletedBefore " +
+            "LIMIT :limit")
+    abstract long[] getDeletedNoteIds(long deletedBefore, int limit);
+
+    @Query("DELETE FROM note_tags WHERE note_id IN (:ids)")
+    abstract void deleteTagsOfNotes(long[] ids);
 
     @Query("DELETE FROM notes_table WHERE id IN (:ids)")
-    Completable deleteNotesById(long[] ids);
+    abstract void deleteNoteRows(long[] ids);
+
+    /**
+     * Returns the notes with the provided ids, in id order. Must be called off the main thread.
+     */
+    @Query("SELECT * FROM notes_table WHERE id IN (:ids) AND +deleted_at = 0 ORDER BY id ASC")
+    public abstract List<Note> getNotesById(int[] ids);
+
+    /**
+     * Returns the note with the provided id, with its full text, or completes empty if it does
+     * not exist.
+     */
+    @Query("SELECT * FROM notes_table WHERE id = :id AND +deleted_at = 0")
+    public abstract Maybe<Note> getNoteById(int id);
+
+    /**
+     * Returns the previews of the notes with the provided ids, in id order. Used to load one page
+     * of notes, whose order comes from {@link NoteSortEngine}. The text is cut by SQLite, so only
+     * the preview is copied into the cursor. Must be called off the main thread.
+     */
+    @Query("SELECT id, tag, version, substr(note_text, 1, " + NotePreview.PREVIEW_LENGTH + ") " +
+            "AS preview, length(note_text) > " + NotePreview.PREVIEW_LENGTH + " AS truncated " +
+            "FROM notes_table WHERE id IN (:ids) AND +deleted_at = 0 ORDER BY id ASC")
+    public abstract List<NotePreview> getNotePreviewsById(int[] ids);
+
+    /**
+     * Returns the latest updated_at of all notes, or 0 if there are none.
+     */
+    @Query("SELECT IFNULL(MAX(updated_at), 0) FROM notes_table")
+    public abstract long getLastUpdatedAt();
+
+    /**
+     * Returns a cursor over the notes changed after the first checkpoint and up to (and
+     * including) the second one, in the order they were changed. The caller must close the
+     * cursor.
+     */
+    @Query("SELECT * FROM notes_table WHERE updated_at > :after AND updated_at <= :upTo " +
+            "AND deleted_at = 0 ORDER BY updated_at ASC, id ASC")
+    public abstract Cursor getNotesCursorChangedBetween(long after, long upTo);
+
+    /*
+     * Change journal (see NoteChange). Entries are written by triggers, never by the app.
+     */
+
+    /**
+     * Returns the journal entries that follow the provided one, oldest first.
+     * @param afterSeq the sequence number of the last entry already seen
+     * @param limit the maximum number of entries to return
+     */
+    @Query("SELECT * FROM note_changes WHERE seq > :afterSeq ORDER BY seq ASC LIMIT :limit")
+    public abstract List<NoteChange> getChangesAfter(long afterSeq, int limit);
+
+    /**
+     * Returns the sequence number of the latest journal entry, or 0 if the journal is empty.
+     */
+    @Query("SELECT IFNULL(MAX(seq), 0) FROM note_changes")
+    public abstract long getLastChangeSeq();
+
+    /**
+     * Removes the journal entries up to (and including) the provided one, once they were read.
+     */
+    @Query("DELETE FROM note_changes WHERE seq <= :seq")
+    public abstract void deleteChangesUpTo(long seq);
+
+    /*
+     * Drafts of the notes being written (see NoteDraft). A note has at most one draft, which is
+     * replaced every time it is saved.
+     */
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    public abstract void saveDraft(NoteDraft draft);
+
+    @Query("SELECT * FROM note_drafts WHERE note_id = :noteId")
+    public abstract Maybe<NoteDraft> getDraft(int noteId);
+
+    @Query("DELETE FROM note_drafts WHERE note_id = :noteId")
+    public abstract void deleteDraft(int noteId);
+
+    /*
+     * Lookups by tag. These go through the (tag, note_id) index on note_tags.
+     */
+
+    /**
+     * Returns the notes that have the provided tag.
+     */
+    @Query("SELECT notes_table.* FROM note_tags " +
+            "JOIN notes_table ON notes_table.id = note_tags.note_id " +
+            "WHERE note_tags.tag = :tag AND notes_table.deleted_at = 0 " +
+            "ORDER BY notes_table.id ASC")
+    public abstract Single<List<Note>> getNotesWithTag(String tag);
 
-    @Query("SELECT * FROM notes_table")
-    LiveData<List<Note>> getAllNotes();
+    /**
+     * Returns the notes that have at least one of the provided tags.
+     */
+    @Query("SELECT notes_table.* FROM note_tags " +
+            "JOIN notes_table ON notes_table.id = note_tags.note_id " +
+            "WHERE note_tags.tag IN (:tags) AND notes_table.deleted_at = 0 " +
+            "GROUP BY notes_table.id ORDER BY notes_table.id ASC")
+    public abstract Single<List<Note>> getNotesWithAnyTag(List<String> tags);
 
-    @Query("SELECT * FROM notes_table ORDER BY id ASC")
-    LiveData<List<Note>> getIdAscendingNotes();
+    /**
+     * Returns the notes that have all of the provided tags.
+     * @param tags the distinct tags to look for
+     * @param tagCount the number of tags in the list
+     */
+    @Query("SELECT notes_table.* FROM note_tags " +
+            "JOIN notes_table ON notes_table.id = note_tags.note_id " +
+            "WHERE note_tags.tag IN (:tags) AND notes_table.deleted_at = 0 " +
+            "GROUP BY notes_table.id HAVING COUNT(*) = :tagCount ORDER BY notes_table.id ASC")
+    public abstract Single<List<Note>> getNotesWithAllTags(List<String> tags, int tagCount);
 
-    @Query("SELECT * FROM notes_table ORDER BY id DESC")
-    LiveData<List<Note>> getIdDescendingNotes();
+    /**
+     * Returns every tag along with the number of notes that have it, ordered by tag. Reads the
+     * tag_counts table, which is kept up to date by triggers, so the notes are never counted.
+     */
+    @Query("SELECT * FROM tag_counts ORDER BY tag ASC")
+    public abstract LiveData<List<TagCount>> getTagCounts();
 
-    @Query("SELECT * FROM notes_table ORDER BY tag DESC")
-    LiveData<List<Note>> getTagDescendingNotes();
+    /**
+     * Returns a cursor over all notes, so they can be streamed (for example, to a backup) without
+     * loading them all into memory. The caller must close the cursor.
+     */
+    @Query("SELECT * FROM notes_table WHERE deleted_at = 0 ORDER BY id ASC")
+    public abstract Cursor getNotesCursor();
 
-    @Query("SELECT * FROM notes_table ORDER BY tag ASC")
-    LiveData<List<Note>> getTagAscendingNotes();
+    /**
+     * Searches the full-text index for notes matching the provided FTS query (see
+     * {@link ProcessTextUtils#toFtsQuery(String)}). Only the id of each note is returned, along
+     * with its matchinfo() so it can be ranked by {@link NoteSearchResult#getRank()}; the text is
+     * only read for the notes that rank high enough to be shown.
+     */
+    @Query("SELECT notes_table.id, matchinfo(notes_fts) AS match_info FROM notes_table " +
+            "JOIN notes_fts ON notes_table.id = notes_fts.rowid WHERE notes_fts MATCH :query " +
+            "AND notes_table.deleted_at = 0")
+    public abstract Single<List<NoteSearchResult>> search(String query);
 }
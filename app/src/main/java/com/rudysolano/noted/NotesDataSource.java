@@ -0,0 +1,132 @@
+package com.rudysolano.noted;
+
+import androidx.annotation.NonNull;
+import androidx.paging.DataSource;
+import androidx.paging.PositionalDataSource;
+import androidx.room.InvalidationTracker;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A paged source of notes. The order of the notes comes from a snapshot of their sort keys (see
+ * {@link NoteSortEngine}), so loading a page is only a lookup of the note ids at the requested
+ * positions, followed by reading the previews (see {@link NotePreview}) of the notes that are not
+ * cached yet by id. The data source invalidates itself whenever notes_table or note_tags changes,
+ * which makes the PagedList reload from the last position the user was looking at.
+ */
+public class NotesDataSource extends PositionalDataSource<NotePreview> {
+
+    private final NoteSortEngine sortEngine;
+    private final NotesQuerySpec spec;
+    private final InvalidationTracker invalidationTracker;
+    private final InvalidationTracker.Observer observer;
+    //The snapshot used for every page, so positions stay consistent until invalidation
+    private volatile NoteSortEngine.Snapshot snapshot;
+
+    NotesDataSource(NotesDatabase database, NoteSortEngine sortEngine, NotesQuerySpec spec) {
+        this.sortEngine = sortEngine;
+        this.spec = spec;
+        this.invalidationTracker = database.getInvalidationTracker();
+
+        //Invalidate this data source when the notes or their tags change, so a new one can be
+        // created.
+        observer = new InvalidationTracker.Observer("notes_table", "note_tags") {
+            @Override
+            public void onInvalidated(@NonNull Set<String> tables) {
+                invalidate();
+            }
+        };
+        invalidationTracker.addObserver(observer);
+        addInvalidatedCallback(() -> invalidationTracker.removeObserver(observer));
+    }
+
+    @Override
+    public void loadInitial(@NonNull LoadInitialParams params,
+                            @NonNull LoadInitialCallback<NotePreview> callback) {
+        snapshot = sortEngine.getSnapshot(spec);
+        int totalCount = snapshot.size();
+        int position = computeInitialLoadPosition(params, totalCount);
+        int loadSize = computeInitialLoadSize(params, position, totalCount);
+
+        callback.onResult(loadNotes(position, loadSize), position, totalCount);
+    }
+
+    @Override
+    public void loadRange(@NonNull LoadRangeParams params,
+                          @NonNull LoadRangeCallback<NotePreview> callback) {
+        callback.onResult(loadNotes(params.startPosition, params.loadSize));
+    }
+
+    /**
+     * Returns the spec describing the notes in this data source.
+     */
+    public NotesQuerySpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Returns the number of notes in this data source, including the ones not loaded yet, or 0
+     * before the first page is loaded.
+     */
+    public int getTotalCount() {
+        NoteSortEngine.Snapshot current = snapshot;
+        return current == null ? 0 : current.size();
+    }
+
+    /**
+     * Returns the ids of every note in this data source, in list order, including the ones not
+     * loaded yet.
+     */
+    public int[] getAllIds() {
+        NoteSortEngine.Snapshot current = snapshot;
+        return current == null ? new int[0]
+                : current.getIds(spec.getSortChoice(), 0, current.size());
+    }
+
+    /**
+     * Returns the position of the note with the provided id in this data source, or -1 if it is
+     * not in it, or the first page is not loaded yet.
+     */
+    public int getPosition(int id) {
+        NoteSortEngine.Snapshot current = snapshot;
+        return current == null ? -1 : current.getPosition(spec.getSortChoice(), id);
+    }
+
+    private List<NotePreview> loadNotes(int position, int loadSize) {
+        List<NotePreview> notes = sortEngine.getNotes(
+                snapshot.getIds(spec.getSortChoice(), position, loadSize));
+
+        //A note was deleted after the snapshot was taken. The results of an invalidated data
+        // source are dropped, and a new data source loads the page from a fresh snapshot.
+        if (notes == null) {
+            invalidate();
+            return Collections.emptyList();
+        }
+
+        return notes;
+    }
+
+    /**
+     * Creates a new {@link NotesDataSource} every time the previous one is invalidated.
+     */
+    public static class Factory extends DataSource.Factory<Integer, NotePreview> {
+
+        private final NotesDatabase database;
+        private final NoteSortEngine sortEngine;
+        private final NotesQuerySpec spec;
+
+        Factory(NotesDatabase database, NoteSortEngine sortEngine, NotesQuerySpec spec) {
+            this.database = database;
+            this.sortEngine = sortEngine;
+            this.spec = spec;
+        }
+
+        @NonNull
+        @Override
+        public DataSource<Integer, NotePreview> create() {
+            return new NotesDataSource(database, sortEngine, spec);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.rudysolano.noted;
 
 
 import android.content.Context;
+import android.database.Cursor;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -9,7 +10,9 @@ import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
 import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
 
 import java.util.ArrayList;
 
@@ -18,7 +21,8 @@ import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
 
-@Database(entities = {Note.class}, version = 1)
+@Database(entities = {Note.class, NoteFts.class, NoteTag.class, TagCount.class,
+        NoteChange.class, NoteDraft.class}, version = 10, exportSchema = true)
 public abstract class NotesDatabase extends RoomDatabase {
 
     //An instance of the database. Used in getInstance(), where an instance of the database is
@@ -29,19 +33,350 @@ public abstract class NotesDatabase extends RoomDatabase {
     public abstract NotesDao notesDao();
 
     /**
-     * Create an instance of the database. If the version is updated, the old database will simply
-     * be destroyed and a new database created (fallbackToDestructiveMigration). Synchronized means
-     * that only one thread at a time can access this method, so multiple instances of the database
-     * will not be accidentally created.
+     * Triggers that keep tag_counts up to date as tags are added to and removed from notes, and
+     * as notes are deleted and restored. A deleted note keeps its tags until it is purged, so it
+     * can be restored, but they are not counted. A tag whose count drops to zero is removed.
+     */
+    static final String[] TAG_COUNT_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS `tag_counts_after_insert` AFTER INSERT ON `note_tags` " +
+                    "BEGIN " +
+                    "INSERT OR IGNORE INTO `tag_counts` (`tag`, `note_count`) " +
+                    "VALUES (NEW.`tag`, 0); " +
+                    "UPDATE `tag_counts` SET `note_count` = `note_count` + 1 " +
+                    "WHERE `tag` = NEW.`tag`; " +
+                    "END",
+            //The tags of a deleted note are no longer counted, so they are not counted down
+            // again when it is purged.
+            "CREATE TRIGGER IF NOT EXISTS `tag_counts_after_delete` AFTER DELETE ON `note_tags` " +
+                    "WHEN NOT EXISTS (SELECT 1 FROM `notes_table` WHERE `id` = OLD.`note_id` " +
+                    "AND `deleted_at` != 0) " +
+                    "BEGIN " +
+                    "UPDATE `tag_counts` SET `note_count` = `note_count` - 1 " +
+                    "WHERE `tag` = OLD.`tag`; " +
+                    "DELETE FROM `tag_counts` WHERE `tag` = OLD.`tag` AND `note_count` <= 0; " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS `tag_counts_after_note_deleted` AFTER UPDATE OF " +
+                    "`deleted_at` ON `notes_table` " +
+                    "WHEN OLD.`deleted_at` = 0 AND NEW.`deleted_at` != 0 " +
+                    "BEGIN " +
+                    "UPDATE `tag_counts` SET `note_count` = `note_count` - 1 WHERE `tag` IN " +
+                    "(SELECT `tag` FROM `note_tags` WHERE `note_id` = NEW.`id`); " +
+                    "DELETE FROM `tag_counts` WHERE `note_count` <= 0 AND `tag` IN " +
+                    "(SELECT `tag` FROM `note_tags` WHERE `note_id` = NEW.`id`); " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS `tag_counts_after_note_restored` AFTER UPDATE OF " +
+                    "`deleted_at` ON `notes_table` " +
+                    "WHEN OLD.`deleted_at` != 0 AND NEW.`deleted_at` = 0 " +
+                    "BEGIN " +
+                    "INSERT OR IGNORE INTO `tag_counts` (`tag`, `note_count`) " +
+                    "SELECT `tag`, 0 FROM `note_tags` WHERE `note_id` = NEW.`id`; " +
+                    "UPDATE `tag_counts` SET `note_count` = `note_count` + 1 WHERE `tag` IN " +
+                    "(SELECT `tag` FROM `note_tags` WHERE `note_id` = NEW.`id`); " +
+                    "END"
+    };
+
+    /**
+     * The tag count triggers as they were created in version 5, before notes could be restored.
+     * Only used by {@link #MIGRATION_4_5}; {@link #MIGRATION_9_10} replaces them.
+     */
+    private static final String[] TAG_COUNT_TRIGGERS_5 = {
+            TAG_COUNT_TRIGGERS[0],
+            "CREATE TRIGGER IF NOT EXISTS `tag_counts_after_delete` AFTER DELETE ON `note_tags` " +
+                    "BEGIN " +
+                    "UPDATE `tag_counts` SET `note_count` = `note_count` - 1 " +
+                    "WHERE `tag` = OLD.`tag`; " +
+                    "DELETE FROM `tag_counts` WHERE `tag` = OLD.`tag` AND `note_count` <= 0; " +
+                    "END"
+    };
+
+    /**
+     * Triggers that add an entry to the note_changes journal for every note inserted, edited,
+     * deleted or restored (see {@link NoteChange}). Only changes to the text or the tag count as
+     * edits. Purging a deleted note is not journaled again, since its delete already was.
+     */
+    static final String[] NOTE_CHANGE_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS `note_changes_after_insert` AFTER INSERT ON " +
+                    "`notes_table` BEGIN " +
+                    "INSERT INTO `note_changes` (`note_id`, `op`) VALUES (NEW.`id`, " +
+                    NoteChange.OP_INSERT + "); " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS `note_changes_after_update` AFTER UPDATE OF " +
+                    "`note_text`, `tag` ON `notes_table` BEGIN " +
+                    "INSERT INTO `note_changes` (`note_id`, `op`) VALUES (NEW.`id`, " +
+                    NoteChange.OP_UPDATE + "); " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS `note_changes_after_delete` AFTER DELETE ON " +
+                    "`notes_table` WHEN OLD.`deleted_at` = 0 BEGIN " +
+                    "INSERT INTO `note_changes` (`note_id`, `op`) VALUES (OLD.`id`, " +
+                    NoteChange.OP_DELETE + "); " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS `note_changes_after_note_deleted` AFTER UPDATE OF " +
+                    "`deleted_at` ON `notes_table` " +
+                    "WHEN OLD.`deleted_at` = 0 AND NEW.`deleted_at` != 0 BEGIN " +
+                    "INSERT INTO `note_changes` (`note_id`, `op`) VALUES (NEW.`id`, " +
+                    NoteChange.OP_DELETE + "); " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS `note_changes_after_note_restored` AFTER UPDATE OF " +
+                    "`deleted_at` ON `notes_table` " +
+                    "WHEN OLD.`deleted_at` != 0 AND NEW.`deleted_at` = 0 BEGIN " +
+                    "INSERT INTO `note_changes` (`note_id`, `op`) VALUES (NEW.`id`, " +
+                    NoteChange.OP_RESTORE + "); " +
+                    "END"
+    };
+
+    /**
+     * The note change triggers as they were created in version 6, before notes could be deleted
+     * and restored. Only used by {@link #MIGRATION_5_6} and {@link #MIGRATION_6_7};
+     * {@link #MIGRATION_9_10} replaces them.
+     */
+    private static final String[] NOTE_CHANGE_TRIGGERS_6 = {
+            NOTE_CHANGE_TRIGGERS[0],
+            "CREATE TRIGGER IF NOT EXISTS `note_changes_after_update` AFTER UPDATE ON " +
+                    "`notes_table` BEGIN " +
+                    "INSERT INTO `note_changes` (`note_id`, `op`) VALUES (NEW.`id`, " +
+                    NoteChange.OP_UPDATE + "); " +
+                    "END",
+            "CREATE TRIGGER IF NOT EXISTS `note_changes_after_delete` AFTER DELETE ON " +
+                    "`notes_table` BEGIN " +
+                    "INSERT INTO `note_changes` (`note_id`, `op`) VALUES (OLD.`id`, " +
+                    NoteChange.OP_DELETE + "); " +
+                    "END"
+    };
+
+    /**
+     * Statements that replace the update triggers Room creates to keep notes_fts in sync with
+     * notes_table, which fire on every update, with ones that only fire when the text changes, so
+     * deleting or restoring a note does not rewrite its full-text index entry. Room recreates its
+     * own triggers after every migration, so these are run every time the database is opened.
+     */
+    static final String[] FTS_TEXT_UPDATE_TRIGGERS = {
+            "DROP TRIGGER IF EXISTS room_fts_content_sync_notes_fts_BEFORE_UPDATE",
+            "DROP TRIGGER IF EXISTS room_fts_content_sync_notes_fts_AFTER_UPDATE",
+            "CREATE TRIGGER IF NOT EXISTS `notes_fts_before_text_update` BEFORE UPDATE OF " +
+                    "`note_text` ON `notes_table` BEGIN DELETE FROM `notes_fts` " +
+                    "WHERE `docid`=OLD.`rowid`; END",
+            "CREATE TRIGGER IF NOT EXISTS `notes_fts_after_text_update` AFTER UPDATE OF " +
+                    "`note_text` ON `notes_table` BEGIN INSERT INTO `notes_fts`(`docid`, " +
+                    "`note_text`) VALUES (NEW.`rowid`, NEW.`note_text`); END"
+    };
+
+    /**
+     * The triggers Room creates to keep notes_fts in sync with notes_table. Only needed by
+     * migrations: Room creates them itself for a new database.
+     */
+    static final String[] FTS_TRIGGERS = {
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_BEFORE_UPDATE " +
+                    "BEFORE UPDATE ON `notes_table` BEGIN DELETE FROM `notes_fts` " +
+                    "WHERE `docid`=OLD.`rowid`; END",
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_BEFORE_DELETE " +
+                    "BEFORE DELETE ON `notes_table` BEGIN DELETE FROM `notes_fts` " +
+                    "WHERE `docid`=OLD.`rowid`; END",
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_AFTER_UPDATE " +
+                    "AFTER UPDATE ON `notes_table` BEGIN INSERT INTO `notes_fts`(`docid`, " +
+                    "`note_text`) VALUES (NEW.`rowid`, NEW.`note_text`); END",
+            "CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_AFTER_INSERT " +
+                    "AFTER INSERT ON `notes_table` BEGIN INSERT INTO `notes_fts`(`docid`, " +
+                    "`note_text`) VALUES (NEW.`rowid`, NEW.`note_text`); END"
+    };
+
+    /**
+     * Adds the notes_fts full-text index, along with the triggers that keep it in sync with
+     * notes_table (the same ones Room creates for a new database), and indexes existing notes.
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `notes_fts` USING " +
+                    "FTS4(`note_text` TEXT, content=`notes_table`)");
+            for (String trigger : FTS_TRIGGERS) {
+                database.execSQL(trigger);
+            }
+            //Build the index for the notes that already exist.
+            database.execSQL("INSERT INTO `notes_fts`(`notes_fts`) VALUES ('rebuild')");
+        }
+    };
+
+    /**
+     * Adds the (tag, id) index used to sort and filter notes by tag.
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_table_tag_id` ON " +
+                    "`notes_table` (`tag`, `id`)");
+        }
+    };
+
+    /**
+     * Adds note_tags, which holds every hashtag of a note, and fills it from the tag column (until
+     * now, notes could only have a single hashtag).
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `note_tags` (`note_id` INTEGER " +
+                    "NOT NULL, `tag` TEXT NOT NULL, PRIMARY KEY(`note_id`, `tag`), FOREIGN " +
+                    "KEY(`note_id`) REFERENCES `notes_table`(`id`) ON UPDATE NO ACTION ON " +
+                    "DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_note_tags_tag_note_id` ON " +
+                    "`note_tags` (`tag`, `note_id`)");
+            database.execSQL("INSERT OR IGNORE INTO `note_tags` (`note_id`, `tag`) " +
+                    "SELECT `id`, `tag` FROM `notes_table` " +
+                    "WHERE `tag` IS NOT NULL AND `tag` != ''");
+        }
+    };
+
+    /**
+     * Adds tag_counts, counts the notes of every existing tag, and creates the triggers that keep
+     * the counts up to date.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `tag_counts` (`tag` TEXT NOT NULL, " +
+                    "`note_count` INTEGER NOT NULL, PRIMARY KEY(`tag`))");
+            database.execSQL("INSERT INTO `tag_counts` (`tag`, `note_count`) " +
+                    "SELECT `tag`, COUNT(*) FROM `note_tags` GROUP BY `tag`");
+            for (String trigger : TAG_COUNT_TRIGGERS_5) {
+                database.execSQL(trigger);
+            }
+        }
+    };
+
+    /**
+     * Adds the note_changes journal and the triggers that fill it. The journal starts empty;
+     * readers load the notes that exist at that point in full.
+     */
+    static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `note_changes` (`seq` INTEGER PRIMARY " +
+                    "KEY AUTOINCREMENT NOT NULL, `note_id` INTEGER NOT NULL, " +
+                    "`op` INTEGER NOT NULL)");
+            for (String trigger : NOTE_CHANGE_TRIGGERS_6) {
+                database.execSQL(trigger);
+            }
+        }
+    };
+
+    /**
+     * Adds the content_hash column, and computes the hash of every existing note. The hashes can
+     * only be computed in Java, so the notes are read with a cursor and updated one by one. The
+     * update triggers are dropped meanwhile: the text does not change, so there is no need to
+     * rebuild the full-text index or record every note in the change journal.
+     */
+    static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `notes_table` ADD COLUMN `content_hash` INTEGER " +
+                    "NOT NULL DEFAULT 0");
+
+            database.execSQL("DROP TRIGGER IF EXISTS " +
+                    "room_fts_content_sync_notes_fts_BEFORE_UPDATE");
+            database.execSQL("DROP TRIGGER IF EXISTS " +
+                    "room_fts_content_sync_notes_fts_AFTER_UPDATE");
+            database.execSQL("DROP TRIGGER IF EXISTS `note_changes_after_update`");
+
+            SupportSQLiteStatement update = database.compileStatement(
+                    "UPDATE `notes_table` SET `content_hash` = ? WHERE `id` = ?");
+            try (Cursor cursor = database.query("SELECT `id`, `note_text`, `tag` FROM " +
+                    "`notes_table`")) {
+                while (cursor.moveToNext()) {
+                    update.bindLong(1, Note.computeContentHash(cursor.getString(1),
+                            cursor.getString(2)));
+                    update.bindLong(2, cursor.getLong(0));
+                    update.executeUpdateDelete();
+                }
+            }
+
+            for (String trigger : FTS_TRIGGERS) {
+                database.execSQL(trigger);
+            }
+            for (String trigger : NOTE_CHANGE_TRIGGERS_6) {
+                database.execSQL(trigger);
+            }
+        }
+    };
+
+    /**
+     * Adds the updated_at and version columns, and the index used to find the notes changed
+     * since a checkpoint. Existing notes start at version 1, with an updated_at of 0.
+     */
+    static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `notes_table` ADD COLUMN `updated_at` INTEGER " +
+                    "NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE `notes_table` ADD COLUMN `version` INTEGER " +
+                    "NOT NULL DEFAULT 1");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_table_updated_at` ON " +
+                    "`notes_table` (`updated_at`)");
+        }
+    };
+
+    /**
+     * Adds the table that holds the drafts of the notes being written (see {@link NoteDraft}).
+     */
+    static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `note_drafts` (`note_id` INTEGER NOT " +
+                    "NULL, `text` TEXT NOT NULL, `updated_at` INTEGER NOT NULL, PRIMARY KEY" +
+                    "(`note_id`))");
+        }
+    };
+
+    /**
+     * Adds the deleted_at column, which makes deletes undoable, and replaces the (tag, id) index
+     * with a (deleted_at, tag, id) one, so the live notes can still be listed in tag order from
+     * the index alone. The tag count trigger on note_tags is replaced, since it must now skip the
+     * tags of deleted notes, and so are the note change triggers, which now journal deletes and
+     * restores as their own changes and ignore updates that leave the text and tag alone.
+     */
+    static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `notes_table` ADD COLUMN `deleted_at` INTEGER " +
+                    "NOT NULL DEFAULT 0");
+            database.execSQL("DROP INDEX IF EXISTS `index_notes_table_tag_id`");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_table_deleted_at_tag_id` " +
+                    "ON `notes_table` (`deleted_at`, `tag`, `id`)");
+            database.execSQL("DROP TRIGGER IF EXISTS `tag_counts_after_delete`");
+            for (String trigger : TAG_COUNT_TRIGGERS) {
+                database.execSQL(trigger);
+            }
+            database.execSQL("DROP TRIGGER IF EXISTS `note_changes_after_update`");
+            database.execSQL("DROP TRIGGER IF EXISTS `note_changes_after_delete`");
+            for (String trigger : NOTE_CHANGE_TRIGGERS) {
+                database.execSQL(trigger);
+            }
+        }
+    };
+
+    /**
+     * Every migration, in order. Each schema change adds a new migration here, so a database on
+     * any previous version can be brought up to date. The schema of each version is exported to
+     * app/schemas and checked by NotesMigrationTest.
+     */
+    static final Migration[] MIGRATIONS = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4,
+            MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7, MIGRATION_7_8, MIGRATION_8_9,
+            MIGRATION_9_10};
+
+    /**
+     * Create an instance of the database. Schema changes are applied with migrations, so notes
+     * are kept when the database version is updated. Synchronized means that only one thread at a
+     * time can access this method, so multiple instances of the database will not be accidentally
+     * created.
      */
     public static synchronized NotesDatabase getInstance(Context context) {
         //If an instance of the database does not exist, create a new instance
         if (instance == null) {
             instance = Room.databaseBuilder(context.getApplicationContext(),
                     NotesDatabase.class, "notes_database")
+                    .addCallback(TRIGGERS_CALLBACK)
                     //Add callback that will populate database asynchronously
                     .addCallback(roomCallback)
-                    .fallbackToDestructiveMigration()
+                    .addMigrations(MIGRATIONS)
                     .build();
         }
 
@@ -49,6 +384,32 @@ public abstract class NotesDatabase extends RoomDatabase {
         return instance;
     }
 
+    /**
+     * A RoomDatabase.Callback which will create the triggers Room does not know about upon
+     * creation. Every time the database is opened, it also replaces the full-text index update
+     * triggers (see {@link #FTS_TEXT_UPDATE_TRIGGERS}). Tests add it to their in-memory databases.
+     */
+    static final RoomDatabase.Callback TRIGGERS_CALLBACK = new RoomDatabase.Callback() {
+        @Override
+        public void onCreate(@NonNull SupportSQLiteDatabase db) {
+            super.onCreate(db);
+            for (String trigger : TAG_COUNT_TRIGGERS) {
+                db.execSQL(trigger);
+            }
+            for (String trigger : NOTE_CHANGE_TRIGGERS) {
+                db.execSQL(trigger);
+            }
+        }
+
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+            super.onOpen(db);
+            for (String statement : FTS_TEXT_UPDATE_TRIGGERS) {
+                db.execSQL(statement);
+            }
+        }
+    };
+
     /**
      * A RoomDatabase.Callback which will populate the database upon creation.
      */
@@ -81,27 +442,25 @@ public abstract class NotesDatabase extends RoomDatabase {
         initialNotes.add(note2);
         initialNotes.add(note3);
 
-        for (Note note : initialNotes) {
-            //Call the dao to insert the note, using Completable.
-            notesDao.insertNote(note).subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(new CompletableObserver() {
-
-                        @Override
-                        public void onSubscribe(@io.reactivex.annotations.NonNull Disposable d) {
-                            //do nothing
-                        }
-
-                        @Override
-                        public void onComplete() {
-                            //do nothing
-                        }
-
-                        @Override
-                        public void onError(@io.reactivex.annotations.NonNull Throwable e) {
-                            //do nothing
-                        }
-                    });
-        }
+        //Call the dao to insert all notes in one transaction, using Completable.
+        notesDao.insertNotes(initialNotes).subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(new CompletableObserver() {
+
+                    @Override
+                    public void onSubscribe(@io.reactivex.annotations.NonNull Disposable d) {
+                        //do nothing
+                    }
+
+                    @Override
+                    public void onComplete() {
+                        //do nothing
+                    }
+
+                    @Override
+                    public void onError(@io.reactivex.annotations.NonNull Throwable e) {
+                        //do nothing
+                    }
+                });
     }
 }
\ No newline at end of file
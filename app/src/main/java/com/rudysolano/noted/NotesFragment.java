@@ -1,6 +1,7 @@
 package com.rudysolano.noted;
 
 import android.content.Context;
+import android.os.Build;
 import android.os.Bundle;
 
 import androidx.annotation.NonNull;
@@ -9,6 +10,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
+import androidx.paging.PagedList;
 import androidx.recyclerview.widget.DividerItemDecoration;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -17,16 +19,17 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
 
-import java.util.List;
-
 public class NotesFragment extends Fragment  {
 
     private static final String STATE_ADAPTER = "adapter";
 
     private RecyclerView mRecyclerView;
     private View mEmptyStateView;
+    //True once the first notes drawn were reported to the application
+    private boolean mFirstNotesReported;
     private OnEditNoteRequestListener onEditNoteRequestListener;
     private com.rudysolano.noted.NotesAdapter notesAdapter;
     private com.rudysolano.noted.NotesViewModel notesViewModel;
@@ -70,9 +73,9 @@ public class NotesFragment extends Fragment  {
         //Implement the adapter's listener, which will handle navigating to the next fragment when
         // the user wants to edit a note.
         notesAdapter.setOnNoteClickListener((note) -> {
-            //Call listener callback to handle navigating to next fragment
-            onEditNoteRequestListener.onEditNoteRequest(
-                    note.getId(), note.getNoteText());
+            //Call listener callback to handle navigating to next fragment. Only the id is passed
+            // on, and the full note is loaded by the fragment that edits it.
+            onEditNoteRequestListener.onEditNoteRequest(note.getId());
         });
     }
 
@@ -100,18 +103,19 @@ public class NotesFragment extends Fragment  {
         mRecyclerView.setAdapter(notesAdapter);
 
         //Set up observer on notes data
-        notesViewModel.getAllNotes().observe(getActivity(), new Observer<List<Note>>() {
+        notesViewModel.getAllNotes().observe(getActivity(), new Observer<PagedList<NotePreview>>() {
             /**
              * Update the RecyclerView upon data change. Show appropriate views.
              */
             @Override
-            public void onChanged(@Nullable List<Note> notes) {
+            public void onChanged(@Nullable PagedList<NotePreview> notes) {
                 //Upon data change, if notes list contains at least one note, then show the
                 // RecyclerView, hide the empty state view and update ui. Else, hide the
                 // RecyclerView and show the empty state view.
                 if (!notes.isEmpty()) {
                     setShowViews(true, false);
                     notesAdapter.submitList(notes);
+                    reportFirstNotesDrawn();
                 } else {
                     setShowViews(false, true);
                 }
@@ -122,6 +126,35 @@ public class NotesFragment extends Fragment  {
         return rootView;
     }
 
+    /**
+     * Tells the application when the notes are about to be drawn for the first time, so it can
+     * measure the startup time, and reports the activity as fully drawn to the system.
+     */
+    private void reportFirstNotesDrawn() {
+        if (mFirstNotesReported) {
+            return;
+        }
+        mFirstNotesReported = true;
+
+        mRecyclerView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        if (mRecyclerView.getChildCount() > 0) {
+                            mRecyclerView.getViewTreeObserver().removeOnPreDrawListener(this);
+                            ((NotedApplication) mRecyclerView.getContext()
+                                    .getApplicationContext()).onFirstNotesDrawn();
+                            //Marks the end of the startup for the "Fully drawn" time
+                            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                                    && getActivity() != null) {
+                                getActivity().reportFullyDrawn();
+                            }
+                        }
+                        return true;
+                    }
+                });
+    }
+
     private void setShowViews(boolean showRecyclerView, boolean showEmptyState) {
         if (showRecyclerView) {
             mRecyclerView.setVisibility(View.VISIBLE);
@@ -136,7 +169,7 @@ public class NotesFragment extends Fragment  {
      * An interface to listen for when the user wants to edit a note. To be implemented by host.
      */
     public interface OnEditNoteRequestListener {
-        void onEditNoteRequest(int id, String noteText);
+        void onEditNoteRequest(int id);
     }
 
     @Override
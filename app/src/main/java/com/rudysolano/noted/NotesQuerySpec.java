@@ -0,0 +1,103 @@
+package com.rudysolano.noted;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Describes which notes to show and in which order: a sort choice, and optionally a tag filter.
+ * The filter matches either a whole tag, or every tag starting with the provided text. Instances
+ * are immutable; the with*() methods return a copy with one part changed.
+ */
+public class NotesQuerySpec {
+
+    @NotesViewModel.SortChoices
+    private final String sortChoice;
+    @Nullable
+    private final String tagFilter;
+    private final boolean prefixMatch;
+
+    public NotesQuerySpec(@NotesViewModel.SortChoices String sortChoice) {
+        this(sortChoice, null, false);
+    }
+
+    private NotesQuerySpec(@NotesViewModel.SortChoices String sortChoice,
+                           @Nullable String tagFilter, boolean prefixMatch) {
+        this.sortChoice = sortChoice;
+        this.tagFilter = tagFilter;
+        this.prefixMatch = prefixMatch;
+    }
+
+    /**
+     * @return a copy of this spec with the provided sort choice
+     */
+    public NotesQuerySpec withSortChoice(@NotesViewModel.SortChoices String sortChoice) {
+        return new NotesQuerySpec(sortChoice, tagFilter, prefixMatch);
+    }
+
+    /**
+     * @param tag the tag (without the hash) to filter by, or null to show all notes
+     * @param prefixMatch true to match every tag starting with the provided tag
+     * @return a copy of this spec with the provided tag filter
+     */
+    public NotesQuerySpec withTagFilter(@Nullable String tag, boolean prefixMatch) {
+        boolean noFilter = tag == null || tag.isEmpty();
+        return new NotesQuerySpec(sortChoice, noFilter ? null : tag, !noFilter && prefixMatch);
+    }
+
+    //Getters
+
+    @NotesViewModel.SortChoices
+    public String getSortChoice() {
+        return sortChoice;
+    }
+
+    @Nullable
+    public String getTagFilter() {
+        return tagFilter;
+    }
+
+    public boolean isPrefixMatch() {
+        return prefixMatch;
+    }
+
+    public boolean isTagSort() {
+        return sortChoice.equals(NotesViewModel.SORT_TAG_ASC)
+                || sortChoice.equals(NotesViewModel.SORT_TAG_DESC);
+    }
+
+    public boolean isAscending() {
+        return sortChoice.equals(NotesViewModel.SORT_TAG_ASC)
+                || sortChoice.equals(NotesViewModel.SORT_ID_ASC);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NotesQuerySpec)) {
+            return false;
+        }
+
+        NotesQuerySpec other = (NotesQuerySpec) o;
+        return prefixMatch == other.prefixMatch
+                && sortChoice.equals(other.sortChoice)
+                && (tagFilter == null ? other.tagFilter == null
+                        : tagFilter.equals(other.tagFilter));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = sortChoice.hashCode();
+        result = 31 * result + (tagFilter == null ? 0 : tagFilter.hashCode());
+        result = 31 * result + (prefixMatch ? 1 : 0);
+        return result;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "NotesQuerySpec{sortChoice=" + sortChoice + ", tagFilter=" + tagFilter
+                + ", prefixMatch=" + prefixMatch + "}";
+    }
+}
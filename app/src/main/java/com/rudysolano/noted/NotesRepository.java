@@ -2,61 +2,391 @@ package com.rudysolano.noted;
 
 import android.app.Application;
 
+import android.database.Cursor;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.collection.LruCache;
+import androidx.core.os.TraceCompat;
 import androidx.lifecycle.LiveData;
+import androidx.paging.LivePagedListBuilder;
+import androidx.paging.PagedList;
+import androidx.room.InvalidationTracker;
 
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
 
 import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.schedulers.Schedulers;
 
 /**
  * Provides a DAO abstraction layer.
  */
 public class NotesRepository {
 
+    //Number of notes loaded per page. The next page is prefetched once the user scrolls within
+    // one page of the end of the loaded notes.
+    private static final int PAGE_SIZE = 50;
+    //Default number of notes committed per transaction by importNotes()
+    public static final int DEFAULT_IMPORT_CHUNK_SIZE = 500;
+    //Checkpoint that makes exportNotesChangedSince() export every note
+    public static final long NO_CHECKPOINT = -1;
+    //Number of full notes kept in memory, for notes that are opened again
+    private static final int NOTE_CACHE_SIZE = 16;
+    //Number of notes returned by a search, the most relevant ones
+    static final int MAX_SEARCH_RESULTS = 100;
+    //How long deleted notes are kept after their delete, so it can be undone. Longer than the
+    // undo snackbar is shown.
+    static final long UNDO_WINDOW_MS = 60_000;
+
+    private static NotesRepository instance;
+
+    private final NotesDatabase database;
     private final com.rudysolano.noted.NotesDao notesDao;
-    private final LiveData<List<Note>> allNotes;
+    private final NoteSortEngine sortEngine;
+    private final DiffExecutor diffExecutor = new DiffExecutor();
+    private final NoteWriteQueue writeQueue;
+    //Runs the draft writes one at a time, in the order they are made, so a draft deleted after
+    // a save is never written back by a save that was still running.
+    private final Scheduler draftScheduler = Schedulers.from(Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, "notes-drafts")));
+    private final PagedList.Config pagedListConfig;
+    private final LruCache<Integer, Note> noteCache = new LruCache<>(NOTE_CACHE_SIZE);
+    //Incremented every time the notes change, so notes read before a change are not cached.
+    private int noteCacheGeneration;
+
+    /**
+     * Returns the single repository instance, so the sort snapshot and the cached notes are shared
+     * by every screen.
+     * @param application the base class for this application
+     */
+    public static synchronized NotesRepository getInstance(Application application) {
+        if (instance == null) {
+            instance = new NotesRepository(application);
+        }
+        return instance;
+    }
 
     /**
-     * Gets an instance of {@link NotesDatabase} to get an instance of {@link NotesDao}. Uses DAO
-     * to cache all notes from the database.
+     * Gets an instance of {@link NotesDatabase} to get an instance of {@link NotesDao}.
      * @param application the base class for this application
      */
-    public NotesRepository(Application application) {
-        NotesDatabase database = NotesDatabase.getInstance(application);
+    private NotesRepository(Application application) {
+        database = NotesDatabase.getInstance(application);
         notesDao = database.notesDao();
-        allNotes = notesDao.getAllNotes();
+        sortEngine = new NoteSortEngine(database);
+        writeQueue = new NoteWriteQueue(database);
+        pagedListConfig = new PagedList.Config.Builder()
+                .setPageSize(PAGE_SIZE)
+                .setInitialLoadSizeHint(PAGE_SIZE * 2)
+                .setPrefetchDistance(PAGE_SIZE)
+                .setEnablePlaceholders(false)
+                .build();
 
+        //Drop the cached notes whenever the notes change.
+        database.getInvalidationTracker().addObserver(
+                new InvalidationTracker.Observer("notes_table") {
+                    @Override
+                    public void onInvalidated(@NonNull Set<String> tables) {
+                        synchronized (noteCache) {
+                            noteCache.evictAll();
+                            noteCacheGeneration++;
+                        }
+                    }
+                });
     }
 
+    /**
+     * The following methods write single notes, as the user saves or deletes them. They go
+     * through the write queue (see {@link NoteWriteQueue}), so writes made in quick succession
+     * are committed together. They complete once the write is committed, and must be subscribed
+     * to off the main thread.
+     */
+
+    public Completable insertNote(Note note) {return writeQueue.insert(note);}
+
+    public Completable updateNote(Note note) {return writeQueue.update(note);}
+
+    public Single<Long> deleteNotesById(long[] ids) {return writeQueue.delete(ids);}
+
+    /**
+     * Returns the draft of the note with the provided id (or {@link NoteDraft#NEW_NOTE_ID}), or
+     * completes empty if there is none.
+     */
+    public Maybe<NoteDraft> getDraft(int noteId) {return notesDao.getDraft(noteId);}
+
+    /**
+     * Replaces the draft of the note with the provided id. Runs on the draft thread.
+     */
+    public Completable saveDraft(int noteId, String text) {
+        return Completable.fromAction(() -> notesDao.saveDraft(
+                new NoteDraft(noteId, text, System.currentTimeMillis())))
+                .subscribeOn(draftScheduler);
+    }
+
+    /**
+     * Deletes the draft of the note with the provided id, after any draft save still running.
+     */
+    public Completable deleteDraft(int noteId) {
+        return Completable.fromAction(() -> notesDao.deleteDraft(noteId))
+                .subscribeOn(draftScheduler);
+    }
+
+    /**
+     * Commits the queued writes without waiting. To be called when the app goes to the
+     * background.
+     */
+    public Completable flushWrites() {return writeQueue.flush();}
+
     /**
      * The following methods call the DAO to perform database operations. The operations are
      * explained by the name of the methods.
      */
 
-    public Completable insertNote(Note note) {return notesDao.insertNote(note);}
+    public Completable insertNotes(List<Note> notes) {return notesDao.insertNotes(notes);}
+
+    public Completable upsertNotes(List<Note> notes) {return notesDao.upsertNotes(notes);}
+
+    /**
+     * Deletes every note, once the queued writes are committed, so notes saved just before are
+     * deleted too. Like every delete, completes with the deleted_at that restoreNotes() takes to
+     * undo it.
+     */
+    public Single<Long> deleteAllNotes() {
+        return writeQueue.flush().andThen(notesDao.deleteAllNotes());
+    }
+
+    /**
+     * Deletes every note described by the provided spec except the ones with the provided ids,
+     * once the queued writes are committed. Used to delete a selection made with select all,
+     * without listing the ids of the notes it covers.
+     */
+    public Single<Long> deleteNotesExcept(NotesQuerySpec spec, long[] keptIds) {
+        return writeQueue.flush().andThen(
+                Single.fromCallable(() -> notesDao.deleteNotesExceptBlocking(spec, keptIds)));
+    }
+
+    /**
+     * Restores the notes deleted by the delete that completed with the provided deleted_at, as
+     * long as they were not purged yet.
+     */
+    public Completable restoreNotes(long deletedAt) {return notesDao.restoreNotes(deletedAt);}
+
+    /**
+     * Removes the notes that were deleted more than {@link #UNDO_WINDOW_MS} ago, and can no
+     * longer be restored. Meant to run while the app is idle, such as when it goes to the
+     * background.
+     * @return the number of notes removed
+     */
+    public Single<Integer> purgeDeletedNotes() {
+        return Single.fromCallable(() -> notesDao.purgeDeletedNotesBlocking(
+                System.currentTimeMillis() - UNDO_WINDOW_MS));
+    }
+
+    /**
+     * Returns the notes that have the provided tag.
+     */
+    public Single<List<Note>> getNotesWithTag(String tag) {
+        return notesDao.getNotesWithTag(tag);
+    }
+
+    /**
+     * Returns the notes that have at least one of the provided tags.
+     */
+    public Single<List<Note>> getNotesWithAnyTag(List<String> tags) {
+        return notesDao.getNotesWithAnyTag(tags);
+    }
 
-    public Completable updateNote(Note note) {return notesDao.updateNote(note);}
+    /**
+     * Returns the notes that have all of the provided tags.
+     */
+    public Single<List<Note>> getNotesWithAllTags(List<String> tags) {
+        List<String> distinctTags = new ArrayList<>(new LinkedHashSet<>(tags));
+        return notesDao.getNotesWithAllTags(distinctTags, distinctTags.size());
+    }
 
-    public Completable deleteNotesById(long[] ids) {return notesDao.deleteNotesById(ids);}
+    /**
+     * Returns every tag along with the number of notes that have it. The counts are updated as
+     * notes are written.
+     */
+    public LiveData<List<TagCount>> getTagCounts() {
+        return notesDao.getTagCounts();
+    }
 
-    public Completable deleteAllNotes() {return notesDao.deleteAllNotes();}
+    /**
+     * Inserts a large number of notes, committing them in transactions of the provided size (see
+     * {@link NotesDao#importNotesBlocking}). If a note cannot be read or inserted partway through,
+     * the returned Single fails, but the chunks inserted before stay in the database.
+     * @param notes the notes to insert
+     * @param chunkSize the number of notes inserted per transaction
+     * @return the number of notes that were inserted
+     */
+    public Single<Integer> importNotes(Iterator<Note> notes, int chunkSize) {
+        return Single.fromCallable(() -> notesDao.importNotesBlocking(notes, chunkSize));
+    }
 
-    public LiveData<List<Note>> getAllNotes() {return allNotes;}
+    /**
+     * Writes a backup of all notes to the provided channel (see {@link NotesBackup}). Notes are
+     * streamed from a database cursor, so they are never all held in memory.
+     * @param channel the channel to write the backup to; it is not closed
+     * @return the number of notes written
+     */
+    public Single<Integer> exportNotes(WritableByteChannel channel) {
+        return Single.fromCallable(() -> {
+            try (Cursor cursor = notesDao.getNotesCursor()) {
+                return NotesBackup.write(cursor, channel);
+            }
+        });
+    }
 
-    public LiveData<List<Note>> getIdAscendingNotes() {
-        return notesDao.getIdAscendingNotes();
+    /**
+     * Writes the notes changed since the provided checkpoint to the channel, in the backup format
+     * (see {@link NotesBackup}), and returns the checkpoint to pass next time. Only the rows in
+     * the updated_at index range after the checkpoint are read, so exporting a few changes is
+     * cheap no matter how many notes there are. Deleted notes are not included.
+     * @param channel the channel to write the changes to; it is not closed
+     * @param checkpoint the checkpoint returned by the previous export, or
+     *                   {@link #NO_CHECKPOINT} to export every note
+     * @return the new checkpoint
+     */
+    public Single<Long> exportNotesChangedSince(WritableByteChannel channel, long checkpoint) {
+        return Single.fromCallable(() -> database.runInTransaction(() -> {
+            //Read in one transaction, so notes written meanwhile are left for the next export.
+            long newCheckpoint = notesDao.getLastUpdatedAt();
+            try (Cursor cursor = notesDao.getNotesCursorChangedBetween(checkpoint,
+                    newCheckpoint)) {
+                NotesBackup.write(cursor, channel);
+            }
+            return Math.max(checkpoint, newCheckpoint);
+        }));
     }
 
-    public LiveData<List<Note>> getIdDescendingNotes() {
-        return notesDao.getIdDescendingNotes();
+    /**
+     * Adds the notes in a backup (see {@link NotesBackup}) as new notes. Notes are read and
+     * inserted one chunk at a time, so the backup is never all held in memory. If the backup is
+     * malformed partway through, the notes before the chunk holding the error stay imported (see
+     * {@link #importNotes(Iterator, int)}).
+     * @param channel the channel to read the backup from; it is not closed
+     * @return the number of notes imported
+     */
+    public Single<Integer> importNotes(ReadableByteChannel channel) {
+        return Single.defer(() -> importNotes(NotesBackup.read(channel),
+                DEFAULT_IMPORT_CHUNK_SIZE));
     }
 
-    public LiveData<List<Note>> getTagAscendingNotes() {
-        return notesDao.getTagAscendingNotes();
+    /**
+     * Returns the previews of the notes described by the provided spec, loaded one page at a time
+     * as the list is scrolled. Every sort order is produced from the same snapshot of sort keys, so
+     * changing only the sort choice does not query the database again.
+     * @param spec the order in which to return the notes, and the tag to filter them by
+     */
+    public LiveData<PagedList<NotePreview>> getNotes(NotesQuerySpec spec) {
+        NotesDataSource.Factory factory = new NotesDataSource.Factory(database, sortEngine, spec);
+
+        return new LivePagedListBuilder<>(factory, pagedListConfig).build();
+    }
+
+    /**
+     * Opens the database, running any migration, and loads the sort keys and the first page of
+     * the notes described by the provided spec, so the notes list finds them in memory. Meant to
+     * run in the background as the app starts, before the list asks for its first page; the data
+     * source waits for the snapshot being loaded here rather than loading it a second time. The
+     * warm-up shows in system traces as the "warmUp" section.
+     */
+    public Completable warmUp(NotesQuerySpec spec) {
+        return Completable.fromAction(() -> {
+            TraceCompat.beginSection("warmUp");
+            try {
+                database.getOpenHelper().getWritableDatabase();
+                NoteSortEngine.Snapshot snapshot = sortEngine.getSnapshot(spec);
+                sortEngine.getNotes(snapshot.getIds(spec.getSortChoice(), 0,
+                        pagedListConfig.initialLoadSizeHint));
+            } finally {
+                TraceCompat.endSection();
+            }
+        });
+    }
+
+    /**
+     * Returns the note with the provided id, with its full text, or completes empty if it does
+     * not exist. The last notes loaded are kept in a small cache until the notes change, so
+     * opening a note again does not read it from the database.
+     */
+    public Maybe<Note> getNoteById(int id) {
+        return Maybe.defer(() -> {
+            Note cached;
+            int loadGeneration;
+            synchronized (noteCache) {
+                cached = noteCache.get(id);
+                loadGeneration = noteCacheGeneration;
+            }
+
+            if (cached != null) {
+                return Maybe.just(cached);
+            }
+
+            return notesDao.getNoteById(id).doOnSuccess(note -> {
+                synchronized (noteCache) {
+                    if (loadGeneration == noteCacheGeneration) {
+                        noteCache.put(id, note);
+                    }
+                }
+            });
+        });
     }
 
-    public LiveData<List<Note>> getTagDescendingNotes() {
-        return notesDao.getTagDescendingNotes();
+    /**
+     * Returns the executor that lists of notes are diffed on, which also times every diff.
+     */
+    public DiffExecutor getDiffExecutor() {
+        return diffExecutor;
     }
 
-}
\ No newline at end of file
+    /**
+     * Searches the text of all notes using the full-text index. Every word typed is matched as a
+     * prefix, and the results are ordered from most to least relevant. Every match is ranked, but
+     * only the {@link #MAX_SEARCH_RESULTS} most relevant notes are read in full.
+     * @param text the text typed by the user
+     */
+    public Single<List<Note>> search(String text) {
+        String query = ProcessTextUtils.toFtsQuery(text);
+
+        if (query.isEmpty()) {
+            return Single.just(Collections.emptyList());
+        }
+
+        return notesDao.search(query).map(results -> {
+            Collections.sort(results, (a, b) -> Double.compare(b.getRank(), a.getRank()));
+
+            int[] ids = new int[Math.min(results.size(), MAX_SEARCH_RESULTS)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = results.get(i).getNoteId();
+            }
+
+            //The notes come back in id order, so put them back in rank order.
+            SparseArray<Note> byId = new SparseArray<>(ids.length);
+            for (Note note : notesDao.getNotesById(ids)) {
+                byId.put(note.getId(), note);
+            }
+            List<Note> notes = new ArrayList<>(ids.length);
+            for (int id : ids) {
+                Note note = byId.get(id);
+                //Skips a note deleted since the search.
+                if (note != null) {
+                    notes.add(note);
+                }
+            }
+            return notes;
+        });
+    }
+}
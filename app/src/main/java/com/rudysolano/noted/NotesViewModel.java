@@ -9,12 +9,23 @@ import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Transformations;
+import androidx.paging.PagedList;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Completable;
+import io.reactivex.Maybe;
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
 
 public class NotesViewModel extends AndroidViewModel {
 
@@ -26,42 +37,147 @@ public class NotesViewModel extends AndroidViewModel {
     public static final String SORT_TAG_DESC = "sortTagDesc";
     public static final String SORT_ID_ASC = "sortIdAsc";
     public static final String SORT_ID_DESC = "sortIdDesc";
-
-    private LiveData<List<Note>> mNotesList;
-    private MutableLiveData<String> mSortChoice;    //holds the current sort choice
+    //The notes shown when the app starts
+    static final NotesQuerySpec DEFAULT_QUERY_SPEC = new NotesQuerySpec(SORT_ID_ASC);
+    //How long to wait after the user stops typing before running a search
+    static final long SEARCH_DEBOUNCE_MS = 300;
+    //How long to wait after the user stops typing before saving a draft
+    private static final long DRAFT_DEBOUNCE_MS = 1000;
+    //Longest time a draft goes unsaved while the user types without stopping
+    private static final long DRAFT_MAX_DELAY_MS = 5000;
+    //Shortest time between two draft saves
+    private static final long DRAFT_MIN_INTERVAL_MS = 1000;
+
+    private final LiveData<PagedList<NotePreview>> mNotesList;
+    private final MutableLiveData<NotesQuerySpec> mQuerySpec;    //holds the sort and tag filter
     private final NotesRepository mNotesRepository;
+    private final PublishSubject<String> mSearchQuery;    //emits the text typed by the user
+    private final MutableLiveData<List<Note>> mSearchResults;
+    private final CompositeDisposable mDisposables = new CompositeDisposable();
 
     public NotesViewModel(@NonNull Application application) {
         super(application);
 
-        //Instantiate repository, Note list, and sort choice.
-        mNotesRepository = new NotesRepository(application);
-        mNotesList = mNotesRepository.getAllNotes();
-        mSortChoice = new MutableLiveData<>();
-        mSortChoice.setValue(SORT_ID_ASC);
-
-        //Use switchMap to reassign the value of Notes list when sort choice is updated.
-        mNotesList = Transformations.switchMap(mSortChoice,
-                (Function<String, LiveData<List<Note>>>) input -> {
-            switch (input) {
-                case SORT_ID_ASC:
-                    return mNotesRepository.getIdAscendingNotes();
-                case SORT_ID_DESC:
-                    return mNotesRepository.getIdDescendingNotes();
-                case SORT_TAG_ASC:
-                    return mNotesRepository.getTagAscendingNotes();
-                case SORT_TAG_DESC:
-                    return mNotesRepository.getTagDescendingNotes();
-                default:
-                    return mNotesRepository.getAllNotes();
-            }
-        });
-    }
-
-    public LiveData<List<Note>> getAllNotes() {
+        //Instantiate repository and query spec.
+        mNotesRepository = NotesRepository.getInstance(application);
+        mQuerySpec = new MutableLiveData<>();
+        mQuerySpec.setValue(DEFAULT_QUERY_SPEC);
+
+        //Use switchMap to swap in a new paged list when the sort choice or tag filter is updated.
+        mNotesList = Transformations.switchMap(mQuerySpec,
+                (Function<NotesQuerySpec, LiveData<PagedList<NotePreview>>>)
+                        mNotesRepository::getNotes);
+
+        mSearchQuery = PublishSubject.create();
+        mSearchResults = new MutableLiveData<>();
+        mDisposables.add(searchResults(mSearchQuery,
+                query -> mNotesRepository.search(query).subscribeOn(Schedulers.io()),
+                Schedulers.computation())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(mSearchResults::setValue, throwable -> {
+                    //do nothing
+                }));
+    }
+
+    /**
+     * Turns the text typed by the user into search results. A search only runs once the user
+     * pauses typing, and the results of a previous search are dropped if the query changes before
+     * it completes. A search that fails (for example, on a query the index cannot parse) returns
+     * no results, and later queries are still searched.
+     * @param queries the text typed by the user
+     * @param search runs a single search
+     * @param scheduler the scheduler the pause in typing is timed on
+     */
+    static Observable<List<Note>> searchResults(Observable<String> queries,
+                                                io.reactivex.functions.Function<String,
+                                                        Single<List<Note>>> search,
+                                                Scheduler scheduler) {
+        return queries
+                .debounce(SEARCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS, scheduler)
+                .map(String::trim)
+                .distinctUntilChanged()
+                .switchMapSingle(query -> search.apply(query)
+                        .onErrorReturnItem(Collections.emptyList()));
+    }
+
+    /**
+     * Returns the notes in the current sort order. Notes are loaded one page at a time as the
+     * list is scrolled, rather than loading the whole table at once.
+     */
+    public LiveData<PagedList<NotePreview>> getAllNotes() {
         return mNotesList;
     }
 
+    /**
+     * Returns the executor the notes list should compute its diffs on.
+     */
+    public DiffExecutor getDiffExecutor() {
+        return mNotesRepository.getDiffExecutor();
+    }
+
+    /**
+     * Returns the note with the provided id, with its full text. The list only holds previews.
+     */
+    public Maybe<Note> getNoteById(int id) {
+        return mNotesRepository.getNoteById(id);
+    }
+
+    /**
+     * Returns the draft of the note with the provided id (or {@link NoteDraft#NEW_NOTE_ID}), if
+     * there is one.
+     */
+    public Maybe<NoteDraft> getDraft(int noteId) {
+        return mNotesRepository.getDraft(noteId);
+    }
+
+    /**
+     * Saves the text of a note being written as its draft, as it changes. A draft is saved once
+     * the user stops typing for a moment, or every few seconds if they do not, and never twice
+     * within {@link #DRAFT_MIN_INTERVAL_MS}. Text that did not change since the last save is not
+     * saved again. Saves run off the main thread, one at a time.
+     * @param noteId the id of the note being written, or {@link NoteDraft#NEW_NOTE_ID}
+     * @param texts emits the text of the note every time it changes
+     * @return a Completable that saves drafts until it is disposed, or texts completes
+     */
+    public Completable autosaveDraft(int noteId, Observable<String> texts) {
+        return texts
+                .publish(shared -> Observable.merge(
+                        shared.debounce(DRAFT_DEBOUNCE_MS, TimeUnit.MILLISECONDS),
+                        shared.sample(DRAFT_MAX_DELAY_MS, TimeUnit.MILLISECONDS)))
+                .distinctUntilChanged()
+                .throttleLatest(DRAFT_MIN_INTERVAL_MS, TimeUnit.MILLISECONDS, true)
+                .concatMapCompletable(text -> mNotesRepository.saveDraft(noteId, text));
+    }
+
+    /**
+     * Deletes the draft of the note with the provided id, once it is saved or abandoned.
+     */
+    public Completable deleteDraft(int noteId) {
+        return mNotesRepository.deleteDraft(noteId);
+    }
+
+    /**
+     * Returns the notes matching the current search query, most relevant first.
+     */
+    public LiveData<List<Note>> getSearchResults() {
+        return mSearchResults;
+    }
+
+    /**
+     * Updates the search query. The search runs once the query stops changing for a short while.
+     * @param query the text typed by the user
+     */
+    public void setSearchQuery(String query) {
+        mSearchQuery.onNext(query);
+    }
+
+    /**
+     * Returns every tag along with the number of notes that have it, ordered by tag.
+     */
+    public LiveData<List<TagCount>> getTagCounts() {
+        return mNotesRepository.getTagCounts();
+    }
+
     public Completable insertNote(Note note) {
         return mNotesRepository.insertNote(note);
     }
@@ -70,13 +186,70 @@ public class NotesViewModel extends AndroidViewModel {
         return mNotesRepository.updateNote(note);
     }
 
-    public Completable deleteNotesById(long[] ids) {return mNotesRepository.deleteNotesById(ids);}
+    public Single<Long> deleteNotesById(long[] ids) {return mNotesRepository.deleteNotesById(ids);}
 
-    public Completable deleteAllNotes() {
+    /**
+     * Deletes every note described by the provided spec, except the ones with the provided ids.
+     */
+    public Single<Long> deleteNotesExcept(NotesQuerySpec spec, long[] keptIds) {
+        return mNotesRepository.deleteNotesExcept(spec, keptIds);
+    }
+
+    /**
+     * Commits the writes still waiting in the repository's write queue.
+     */
+    public Completable flushWrites() {
+        return mNotesRepository.flushWrites();
+    }
+
+    public Single<Long> deleteAllNotes() {
         return mNotesRepository.deleteAllNotes();
     }
 
+    /**
+     * Undoes a delete, given the deleted_at it completed with.
+     */
+    public Completable restoreNotes(long deletedAt) {
+        return mNotesRepository.restoreNotes(deletedAt);
+    }
+
+    /**
+     * Removes the deleted notes that can no longer be restored.
+     */
+    public Single<Integer> purgeDeletedNotes() {
+        return mNotesRepository.purgeDeletedNotes();
+    }
+
     public void setSortOption(@SortChoices String sortChoice) {
-        mSortChoice.setValue(sortChoice);
+        setQuerySpec(mQuerySpec.getValue().withSortChoice(sortChoice));
+    }
+
+    /**
+     * Only show the notes with the provided tag, keeping the current sort choice.
+     * @param tag the tag (without the hash) to filter by, or null to show all notes
+     * @param prefixMatch true to show the notes with any tag starting with the provided tag
+     */
+    public void setTagFilter(String tag, boolean prefixMatch) {
+        setQuerySpec(mQuerySpec.getValue().withTagFilter(tag, prefixMatch));
+    }
+
+    /**
+     * Show all notes again, keeping the current sort choice.
+     */
+    public void clearTagFilter() {
+        setTagFilter(null, false);
+    }
+
+    private void setQuerySpec(NotesQuerySpec spec) {
+        //Avoid reloading the list if nothing changed.
+        if (!spec.equals(mQuerySpec.getValue())) {
+            mQuerySpec.setValue(spec);
+        }
+    }
+
+    @Override
+    protected void onCleared() {
+        mDisposables.dispose();
+        super.onCleared();
     }
 }
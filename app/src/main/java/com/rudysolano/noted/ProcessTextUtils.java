@@ -8,8 +8,6 @@ import android.text.style.TextAppearanceSpan;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import static android.text.TextUtils.isEmpty;
-
 /**
  * A helper class to process the text provided by the user.
  *
@@ -23,41 +21,24 @@ public class ProcessTextUtils {
     //Values that are returned after attempting to validate a string.
     public static final int ENTRY_EMPTY = 0;
     public static final int ENTRY_MISSING_HASH = 1;
-    public static final int ENTRY_HAS_MULTIPLE_HASHES = 2;
     public static final int ENTRY_VALID = 3;
     public static final int INVALID_HASHTAG = 4;
 
+    //Hash followed by word characters (a-zA-Z_0-9), which can contain apostrophes either in the
+    // middle or the end of the tag. Compiled once, since compiling a pattern is expensive.
+    private static final Pattern HASHTAG_PATTERN = Pattern.compile("#\\w+'?\\w+'?");
+
     /**
-     * Validates the provided string, verifying that it is not null or empty, it contains
-     * exactly one "#," and that the character after the # is a letter or number.
+     * Validates the provided string, verifying that it is not null or empty, it contains at
+     * least one "#," and that the character after every # is a letter or number. To also get the
+     * hashtags of a valid string, use {@link HashtagScanner}, which does both in a single pass.
      * @param string the provided string
      * @return an integer value representing the validity of the string
      */
     public static int validateEntry(String string) {
-        if (isEmpty(string)) {
-            return ENTRY_EMPTY;
-        } else if (!string.contains("#")) {
-            return ENTRY_MISSING_HASH;
-        } else if (string.indexOf("#") != string.lastIndexOf("#")) {
-            return ENTRY_HAS_MULTIPLE_HASHES;
-        }
-
-        //Verify that the character after the hash is valid (it needs to be a letter or a number).
-        try {
-            int indexAfterHash = string.indexOf("#") + 1;
-
-            if (!Character.isLetterOrDigit(string.charAt(indexAfterHash))) {
-                //The character following the hash is not a letter or number, return error.
-                return INVALID_HASHTAG;
-            }
-        } catch (StringIndexOutOfBoundsException e) {
-            //Could not get the index after the hash, so hash was the last character in the string.
-            // Return error.
-            return INVALID_HASHTAG;
-        }
-
-        //Entry passed all tests, so it is valid.
-        return ENTRY_VALID;
+        HashtagScanner.Result result = new HashtagScanner.Result();
+        HashtagScanner.scan(string, result);
+        return result.getValidity();
     }
 
     /**
@@ -75,11 +56,7 @@ public class ProcessTextUtils {
      * @param string the provided string
      */
     public static String getHashtag(String string) {
-        //Look for pattern where a hash is followed by a word character (a-zA-Z_0-9) and can contain
-        // apostrophe's either in the middle or the end of the string.
-        Pattern pattern = Pattern.compile("#\\w+'?\\w+'?");
-
-        Matcher matcher = pattern.matcher(string);
+        Matcher matcher = HASHTAG_PATTERN.matcher(string);
 
         String hashtag = "";
 
@@ -101,6 +78,20 @@ public class ProcessTextUtils {
      * substring, or simply the string if the substring is not found
      */
     public static SpannableString formatSubstring(String string, String substring, Context context) {
+        return formatSubstring(string, substring, new TextAppearanceSpan(context, R.style.tag));
+    }
+
+    /**
+     * Apply the provided span to a substring, if the substring exists. Spans hold no state of
+     * their own, so the same span instance can be shared by every formatted string, which saves
+     * resolving the style attributes every time.
+     * @param string The entire string.
+     * @param substring The substring to be formatted.
+     * @param span The span to apply to the substring.
+     * @return a SpannableString object, which contains the entire string with the formatted
+     * substring, or simply the string if the substring is not found
+     */
+    public static SpannableString formatSubstring(String string, String substring, Object span) {
         //A SpannableString object allows you to apply special formatting to a substring.
         SpannableString spannableString = new SpannableString(string);
 
@@ -114,11 +105,47 @@ public class ProcessTextUtils {
         if (formatStartPos != -1) {
             int formatEndPos = formatStartPos + substring.length();
 
-            spannableString.setSpan(
-                    new TextAppearanceSpan(context, R.style.tag),
-                    formatStartPos, formatEndPos, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            spannableString.setSpan(span, formatStartPos, formatEndPos,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
         }
 
         return spannableString;
     }
+
+    /**
+     * Converts text typed by the user into an FTS query. Each word is turned into a prefix search
+     * (so results show up while the user is still typing). Words are split and folded the same
+     * way the FTS4 "simple" tokenizer does it: every character other than an ASCII letter or
+     * digit below U+0080 separates words, and only ASCII letters are lowercased, since the index
+     * keeps other characters as they are. Lowercasing also keeps words from being read as
+     * operators such as OR.
+     * @param string the text typed by the user
+     * @return the FTS query, or an empty string if the text contains no searchable words
+     */
+    public static String toFtsQuery(String string) {
+        StringBuilder query = new StringBuilder(string.length() + 1);
+        boolean inWord = false;
+
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+
+            if (c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+                    || (c >= 'A' && c <= 'Z')) {
+                if (!inWord && query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+                inWord = true;
+            } else if (inWord) {
+                query.append('*');
+                inWord = false;
+            }
+        }
+
+        if (inWord) {
+            query.append('*');
+        }
+
+        return query.toString();
+    }
 }
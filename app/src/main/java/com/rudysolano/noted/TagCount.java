@@ -0,0 +1,39 @@
+package com.rudysolano.noted;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * The number of notes that have a tag. The tag_counts table is kept up to date by triggers on
+ * note_tags (see {@link NotesDatabase#TAG_COUNT_TRIGGERS}), so reading the counts of every tag
+ * does not require counting the notes themselves.
+ */
+@Entity(tableName = "tag_counts")
+public class TagCount {
+
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "tag")
+    private final String tag;
+    @ColumnInfo(name = "note_count")
+    private final int noteCount;
+
+    //Constructor
+    public TagCount(@NonNull String tag, int noteCount) {
+        this.tag = tag;
+        this.noteCount = noteCount;
+    }
+
+    //Getters
+
+    @NonNull
+    public String getTag() {
+        return tag;
+    }
+
+    public int getNoteCount() {
+        return noteCount;
+    }
+}
@@ -0,0 +1,73 @@
+package com.rudysolano.noted;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link DiffExecutor} runs the diffs it is given and keeps their timings.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DiffExecutorTest {
+
+    @Test
+    public void execute_recordsTimings() throws InterruptedException {
+        DiffExecutor executor = new DiffExecutor();
+        long slowDiffMs = TimeUnit.NANOSECONDS.toMillis(DiffExecutor.SLOW_DIFF_NS) + 4;
+
+        executor.execute(() -> {
+        });
+        executor.execute(() -> sleep(slowDiffMs));
+        long[] metrics = awaitMetrics(executor);
+
+        assertEquals(2, metrics[0]);
+        assertTrue(metrics[1] >= TimeUnit.MILLISECONDS.toNanos(slowDiffMs));
+        assertEquals(metrics[1], metrics[2]);
+        //The average includes the fast diff.
+        assertTrue(metrics[3] < metrics[2]);
+    }
+
+    @Test
+    public void getters_areZeroBeforeTheFirstDiff() {
+        DiffExecutor executor = new DiffExecutor();
+
+        assertEquals(0, executor.getDiffCount());
+        assertEquals(0, executor.getMaxDiffNs());
+        assertEquals(0, executor.getAverageDiffNs());
+    }
+
+    /**
+     * Returns the diff count, and the last, max and average diff times, read on the diff thread
+     * once the diffs already given to the executor have been recorded. The diff thread records a
+     * diff before it runs the next one.
+     */
+    private static long[] awaitMetrics(DiffExecutor executor) throws InterruptedException {
+        long[] metrics = new long[4];
+        CountDownLatch latch = new CountDownLatch(1);
+        executor.execute(() -> {
+            metrics[0] = executor.getDiffCount();
+            metrics[1] = executor.getLastDiffNs();
+            metrics[2] = executor.getMaxDiffNs();
+            metrics[3] = executor.getAverageDiffNs();
+            latch.countDown();
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return metrics;
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.rudysolano.noted;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link HashtagScanner} finds the same tags as the #\w+'?\w+'? pattern, and returns
+ * the same validity codes as the checks it replaced for notes with a single hashtag.
+ */
+public class HashtagScannerTest {
+
+    private static final Pattern HASHTAG_PATTERN = Pattern.compile("#\\w+'?\\w+'?");
+
+    private final HashtagScanner.Result result = new HashtagScanner.Result();
+
+    @Test
+    public void scan_validityCodes() {
+        assertValidity(ProcessTextUtils.ENTRY_EMPTY, null);
+        assertValidity(ProcessTextUtils.ENTRY_EMPTY, "");
+        assertValidity(ProcessTextUtils.ENTRY_MISSING_HASH, "no tag here");
+        assertValidity(ProcessTextUtils.ENTRY_VALID, "#one and #two");
+        assertValidity(ProcessTextUtils.INVALID_HASHTAG, "#one and # two");
+        assertValidity(ProcessTextUtils.INVALID_HASHTAG, "ends with #");
+        assertValidity(ProcessTextUtils.INVALID_HASHTAG, "# space");
+        assertValidity(ProcessTextUtils.ENTRY_VALID, "I need to #buy new t-shirts");
+    }
+
+    @Test
+    public void scan_tagBounds() {
+        assertTag("buy", "I need to #buy new t-shirts");
+        assertTag("don't", "#don't forget");
+        assertTag("mom's", "call #mom's phone");
+        assertTag("a'b'", "#a'b'c");
+        assertTag("ab'", "#ab'");
+        //The pattern needs at least two word characters, and only matches ASCII word characters.
+        assertTag("", "#a");
+        assertTag("", "#école");
+    }
+
+    @Test
+    public void findTags_returnsDistinctTagsInOrder() {
+        assertEquals(Arrays.asList("buy", "shirts", "today"),
+                HashtagScanner.findTags("#buy new #shirts #today, #buy #a"));
+
+        HashtagScanner.scan("#first then #second", result);
+        assertEquals("first", result.getTag("#first then #second"));
+    }
+
+    @Test
+    public void scan_matchesPatternOnRandomText() {
+        Random random = new Random(42);
+        String alphabet = "ab_1' #é.";
+
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            String string = text.toString();
+            List<String> tags = new ArrayList<>();
+            HashtagScanner.scan(string, result, tags);
+
+            if (string.indexOf('#') == string.lastIndexOf('#')) {
+                assertEquals(string, legacyValidate(string), result.getValidity());
+            }
+
+            if (result.getValidity() == ProcessTextUtils.ENTRY_VALID) {
+                assertEquals(string, legacyTag(string), result.getTag(string));
+                assertEquals(string, patternTags(string), tags);
+            }
+        }
+    }
+
+    private void assertValidity(int expected, String text) {
+        HashtagScanner.scan(text, result);
+        assertEquals(expected, result.getValidity());
+    }
+
+    private void assertTag(String expected, String text) {
+        HashtagScanner.scan(text, result);
+        assertEquals(expected, result.getTag(text));
+        assertEquals(legacyTag(text), result.getTag(text));
+    }
+
+    /**
+     * The validation previously done with contains() and indexOf(), for a single hashtag.
+     */
+    private static int legacyValidate(String string) {
+        if (string == null || string.isEmpty()) {
+            return ProcessTextUtils.ENTRY_EMPTY;
+        } else if (!string.contains("#")) {
+            return ProcessTextUtils.ENTRY_MISSING_HASH;
+        }
+
+        int indexAfterHash = string.indexOf("#") + 1;
+        if (indexAfterHash == string.length()
+                || !Character.isLetterOrDigit(string.charAt(indexAfterHash))) {
+            return ProcessTextUtils.INVALID_HASHTAG;
+        }
+
+        return ProcessTextUtils.ENTRY_VALID;
+    }
+
+    /**
+     * The tag previously found with the pattern, with the hash removed.
+     */
+    private static String legacyTag(String string) {
+        Matcher matcher = HASHTAG_PATTERN.matcher(string);
+        return matcher.find() ? matcher.group().replace("#", "") : "";
+    }
+
+    /**
+     * Every distinct tag found with the pattern, with the hash removed.
+     */
+    private static List<String> patternTags(String string) {
+        Matcher matcher = HASHTAG_PATTERN.matcher(string);
+        List<String> tags = new ArrayList<>();
+        while (matcher.find()) {
+            String tag = matcher.group().replace("#", "");
+            if (!tags.contains(tag)) {
+                tags.add(tag);
+            }
+        }
+        return tags;
+    }
+}
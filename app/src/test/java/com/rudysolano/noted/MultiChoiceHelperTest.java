@@ -0,0 +1,251 @@
+package com.rudysolano.noted;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
+import androidx.recyclerview.widget.RecyclerView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bulk selection operations of {@link MultiChoiceHelper}, that a selection follows its
+ * items when they are reordered or removed, and that it only takes room for the selected ids.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class MultiChoiceHelperTest {
+
+    private AppCompatActivity activity;
+
+    @Before
+    public void createActivity() {
+        ActivityController<AppCompatActivity> controller =
+                Robolectric.buildActivity(AppCompatActivity.class);
+        controller.get().setTheme(R.style.Theme_Noted);
+        activity = controller.setup().get();
+    }
+
+    @Test
+    public void selectAll_countsItemsWithoutListingThem() {
+        MultiChoiceHelper helper = createHelper(new ItemAdapter(50_000));
+
+        helper.selectAll();
+        assertEquals(50_000, helper.getActivatedItemCount());
+        assertTrue(helper.isItemActivated(49_999));
+
+        helper.toggleItemActivated(10, false);
+        assertEquals(49_999, helper.getActivatedItemCount());
+        assertFalse(helper.isItemActivated(10));
+
+        long[] ids = helper.getActivatedItemIds();
+        assertEquals(49_999, ids.length);
+        assertEquals(9, ids[9]);
+        assertEquals(11, ids[10]);
+    }
+
+    @Test
+    public void invertChoices_activatesTheOtherItems() {
+        MultiChoiceHelper helper = createHelper(new ItemAdapter(5));
+
+        helper.setItemActivated(0, true, false);
+        helper.setItemActivated(2, true, false);
+        helper.invertChoices();
+
+        assertEquals(3, helper.getActivatedItemCount());
+        assertArrayEquals(new long[]{1, 3, 4}, helper.getActivatedItemIds());
+    }
+
+    @Test
+    public void activateRangeTo_activatesFromLastItem() {
+        MultiChoiceHelper helper = createHelper(new ItemAdapter(10));
+
+        helper.setItemActivated(6, true, false);
+        helper.activateRangeTo(3);
+
+        assertArrayEquals(new long[]{3, 4, 5, 6}, helper.getActivatedItemIds());
+    }
+
+    @Test
+    public void savedState_keepsInvertedSelection() {
+        ItemAdapter adapter = new ItemAdapter(1000);
+        MultiChoiceHelper helper = createHelper(adapter);
+        helper.selectAll();
+        helper.toggleItemActivated(500, false);
+
+        Parcel parcel = Parcel.obtain();
+        helper.onSaveInstanceState().writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        Parcelable state = MultiChoiceHelper.SavedState.CREATOR.createFromParcel(parcel);
+        parcel.recycle();
+
+        MultiChoiceHelper restored = createHelper(adapter);
+        restored.onRestoreInstanceState(state);
+
+        assertEquals(999, restored.getActivatedItemCount());
+        assertFalse(restored.isItemActivated(500));
+        assertTrue(restored.isItemActivated(501));
+    }
+
+    @Test
+    public void reorder_keepsLargeSelection() {
+        ItemAdapter adapter = new ItemAdapter(20_000);
+        MultiChoiceHelper helper = createHelper(adapter);
+        //Every other item, so the selection is not a single range.
+        for (int position = 0; position < 20_000; position += 2) {
+            helper.setItemActivated(position, true, false);
+        }
+
+        //Reversing the list moves most items farther than any search around their old position
+        // would reach.
+        long[] ids = new long[20_000];
+        for (int position = 0; position < ids.length; position++) {
+            ids[position] = 19_999 - position;
+        }
+        adapter.setIds(ids);
+
+        assertEquals(10_000, helper.getActivatedItemCount());
+        assertTrue(helper.isItemActivated(19_999));
+        assertFalse(helper.isItemActivated(0));
+
+        //Removing items deactivates them.
+        adapter.setIds(Arrays.copyOf(ids, 10_000));
+        assertEquals(5_000, helper.getActivatedItemCount());
+    }
+
+    @Test
+    public void savedState_onlyHoldsSelectedIds() {
+        //Ids only grow, so after many notes were created and deleted they are large.
+        ItemAdapter adapter = new ItemAdapter(new long[]{5_000_000_000L, 5_000_000_007L});
+        MultiChoiceHelper helper = createHelper(adapter);
+        helper.setItemActivated(1, true, false);
+
+        MultiChoiceHelper.SavedState state =
+                (MultiChoiceHelper.SavedState) helper.onSaveInstanceState();
+
+        assertArrayEquals(new long[]{5_000_000_007L}, state.exceptionIds);
+        assertArrayEquals(new long[]{5_000_000_007L}, helper.getActivatedItemIds());
+
+        //The selection follows its item when the ids are too far apart to be indexed.
+        adapter.setIds(new long[]{5_000_000_007L, 1});
+        assertTrue(helper.isItemActivated(0));
+        assertEquals(1, helper.getActivatedItemCount());
+    }
+
+    @Test
+    public void adapterWithoutStableIds_tracksPositions() {
+        ItemAdapter adapter = new ItemAdapter(10);
+        adapter.setHasStableIds(false);
+        MultiChoiceHelper helper = createHelper(adapter);
+
+        helper.setItemActivated(3, true, false);
+        helper.setItemActivated(8, true, false);
+
+        assertEquals(2, helper.getActivatedItemCount());
+        assertTrue(helper.isItemActivated(8));
+        assertEquals(0, helper.getActivatedItemIds().length);
+
+        //Positions past the end are deactivated when items are removed.
+        adapter.setIds(new long[5]);
+        assertEquals(1, helper.getActivatedItemCount());
+        assertTrue(helper.isItemActivated(3));
+    }
+
+    private MultiChoiceHelper createHelper(ItemAdapter adapter) {
+        MultiChoiceHelper helper = new MultiChoiceHelper(activity, adapter);
+        helper.setMultiChoiceModeListener(new MultiChoiceHelper.MultiChoiceModeListener() {
+            @Override
+            public void onItemActivatedStateChanged(ActionMode mode, int position, long id,
+                                                    boolean activated) {
+                //do nothing
+            }
+
+            @Override
+            public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+                return true;
+            }
+
+            @Override
+            public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+                return true;
+            }
+
+            @Override
+            public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+                return false;
+            }
+
+            @Override
+            public void onDestroyActionMode(ActionMode mode) {
+                //do nothing
+            }
+        });
+        return helper;
+    }
+
+    /**
+     * An adapter of empty items, whose ids are their positions until they are replaced.
+     */
+    private static class ItemAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+
+        private long[] ids;
+
+        ItemAdapter(int itemCount) {
+            this(new long[itemCount]);
+            for (int position = 0; position < itemCount; position++) {
+                ids[position] = position;
+            }
+        }
+
+        ItemAdapter(long[] ids) {
+            this.ids = ids;
+            setHasStableIds(true);
+        }
+
+        void setIds(long[] ids) {
+            this.ids = ids;
+            notifyDataSetChanged();
+        }
+
+        @NonNull
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent,
+                                                          int viewType) {
+            return new RecyclerView.ViewHolder(new View(parent.getContext())) {};
+        }
+
+        @Override
+        public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
+            //do nothing
+        }
+
+        @Override
+        public int getItemCount() {
+            return ids.length;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return ids[position];
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.rudysolano.noted;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link NoteSearchResult} ranks a note from its matchinfo() blob.
+ */
+public class NoteSearchResultTest {
+
+    @Test
+    public void rank_isShareOfEachPhrasesHits() {
+        //Two phrases, one column: 1 of 4 hits of the first phrase, 2 of 2 of the second.
+        NoteSearchResult result = new NoteSearchResult(1, matchInfo(2, 1, 1, 4, 3, 2, 2, 1));
+
+        assertEquals(1.25, result.getRank(), 0);
+    }
+
+    @Test
+    public void rank_favorsRareWords() {
+        //The same number of hits, of a word found in few notes and of a word found in many.
+        NoteSearchResult rareWord = new NoteSearchResult(1, matchInfo(1, 1, 2, 3, 2));
+        NoteSearchResult commonWord = new NoteSearchResult(2, matchInfo(1, 1, 2, 40, 30));
+
+        assertTrue(rareWord.getRank() > commonWord.getRank());
+    }
+
+    @Test
+    public void rank_ignoresPhrasesWithoutHits() {
+        assertEquals(0, new NoteSearchResult(1, matchInfo(1, 1, 0, 0, 0)).getRank(), 0);
+    }
+
+    /**
+     * Packs the provided values the way matchinfo() returns them: 32-bit integers in the byte
+     * order of the device.
+     */
+    private static byte[] matchInfo(int... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.nativeOrder());
+        for (int value : values) {
+            buffer.putInt(value);
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,160 @@
+package com.rudysolano.noted;
+
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that every sort order produced by {@link NoteSortEngine} matches the order SQLite
+ * returns for the same ORDER BY, including after the snapshot is patched with journaled changes.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NoteSortEngineTest {
+
+    private NotesDatabase database;
+    private NoteSortEngine sortEngine;
+
+    @Before
+    public void createDatabase() {
+        database = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(),
+                NotesDatabase.class)
+                .addCallback(NotesDatabase.TRIGGERS_CALLBACK)
+                .allowMainThreadQueries()
+                .build();
+        sortEngine = new NoteSortEngine(database);
+
+        List<Note> notes = new ArrayList<>();
+        String[] tags = {"milk", "eggs", "bread", "milk", "apples", "eggs", "zucchini"};
+        for (String tag : tags) {
+            notes.add(new Note("Buy #" + tag, tag));
+        }
+        database.notesDao().insertNotesBlocking(notes);
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    @Test
+    public void getIds_matchesDatabaseOrder() {
+        assertOrder(NotesViewModel.SORT_ID_ASC, "id ASC");
+        assertOrder(NotesViewModel.SORT_ID_DESC, "id DESC");
+        assertOrder(NotesViewModel.SORT_TAG_ASC, "tag ASC, id ASC");
+        assertOrder(NotesViewModel.SORT_TAG_DESC, "tag DESC, id DESC");
+    }
+
+    @Test
+    public void getIds_returnsRequestedRange() {
+        NoteSortEngine.Snapshot snapshot =
+                sortEngine.getSnapshot(new NotesQuerySpec(NotesViewModel.SORT_ID_DESC));
+
+        assertArrayEquals(new int[]{5, 4}, snapshot.getIds(NotesViewModel.SORT_ID_DESC, 2, 2));
+        assertArrayEquals(new int[]{1}, snapshot.getIds(NotesViewModel.SORT_ID_DESC, 6, 50));
+    }
+
+    @Test
+    public void getPosition_isInverseOfGetIds() {
+        String[] sortChoices = {NotesViewModel.SORT_ID_ASC, NotesViewModel.SORT_ID_DESC,
+                NotesViewModel.SORT_TAG_ASC, NotesViewModel.SORT_TAG_DESC};
+
+        for (String sortChoice : sortChoices) {
+            NoteSortEngine.Snapshot snapshot =
+                    sortEngine.getSnapshot(new NotesQuerySpec(sortChoice));
+            int[] ids = snapshot.getIds(sortChoice, 0, 50);
+            for (int position = 0; position < ids.length; position++) {
+                assertEquals(sortChoice, position, snapshot.getPosition(sortChoice, ids[position]));
+            }
+            assertEquals(-1, snapshot.getPosition(sortChoice, 100));
+        }
+    }
+
+    @Test
+    public void getSnapshot_appliesTagFilter() {
+        NotesQuerySpec spec = new NotesQuerySpec(NotesViewModel.SORT_ID_ASC);
+
+        assertArrayEquals(new int[]{2, 6}, sortEngine.getSnapshot(spec.withTagFilter("eggs", false))
+                .getIds(NotesViewModel.SORT_ID_ASC, 0, 50));
+        assertArrayEquals(new int[]{1, 4}, sortEngine.getSnapshot(spec.withTagFilter("mi", true))
+                .getIds(NotesViewModel.SORT_ID_ASC, 0, 50));
+        assertEquals(7, sortEngine.getSnapshot(spec).size());
+    }
+
+    @Test
+    public void prefixUpperBound_incrementsLastCodePoint() {
+        assertEquals("mj", NoteSortEngine.prefixUpperBound("mi"));
+        //U+FFFF is followed by U+10000, and U+D7FF by U+E000.
+        assertEquals("a\uD800\uDC00", NoteSortEngine.prefixUpperBound("a\uFFFF"));
+        assertEquals("a\uE000", NoteSortEngine.prefixUpperBound("a\uD7FF"));
+        assertEquals("a\uD83D\uDE01", NoteSortEngine.prefixUpperBound("a\uD83D\uDE00"));
+        //U+10FFFF cannot be incremented, so it is dropped.
+        assertEquals("b", NoteSortEngine.prefixUpperBound("a\uDBFF\uDFFF\uDBFF\uDFFF"));
+        assertNull(NoteSortEngine.prefixUpperBound("\uDBFF\uDFFF"));
+        assertNull(NoteSortEngine.prefixUpperBound(""));
+    }
+
+    @Test
+    public void getSnapshot_appliesJournaledChanges() {
+        NotesDao notesDao = database.notesDao();
+        NotesQuerySpec spec = new NotesQuerySpec(NotesViewModel.SORT_TAG_ASC);
+        sortEngine.getSnapshot(spec);
+
+        //Tags outside the Basic Multilingual Plane sort after U+FFFD in SQLite, but before it in
+        // String.compareTo().
+        notesDao.insertNotesBlocking(Arrays.asList(new Note("#\uD83D\uDE00", "\uD83D\uDE00"),
+                new Note("#\uFFFD", "\uFFFD"), new Note("Buy #cheese", "cheese")));
+        Note updated = new Note("Buy #yogurt", "yogurt");
+        updated.setId(1);
+        notesDao.updateNotesBlocking(Collections.singletonList(updated));
+        notesDao.deleteNotesById(new long[]{3}).blockingGet();
+        sortEngine.onDataChanged();
+
+        assertOrder(NotesViewModel.SORT_TAG_ASC, "tag ASC, id ASC");
+        assertOrder(NotesViewModel.SORT_ID_DESC, "id DESC");
+        //Journal entries are removed once applied.
+        assertEquals(0, notesDao.getChangesAfter(0, 10).size());
+    }
+
+    @Test
+    public void getNotes_returnsNullForDeletedNote() {
+        assertEquals("bread", sortEngine.getNotes(new int[]{3, 1}).get(0).getTag());
+        assertNull(sortEngine.getNotes(new int[]{3, 100}));
+    }
+
+    private void assertOrder(@NotesViewModel.SortChoices String sortChoice, String orderBy) {
+        int[] ids = sortEngine.getSnapshot(new NotesQuerySpec(sortChoice))
+                .getIds(sortChoice, 0, 50);
+
+        assertArrayEquals(sortChoice, queryIds(orderBy), ids);
+    }
+
+    private int[] queryIds(String orderBy) {
+        try (Cursor cursor =
+                     database.query("SELECT id FROM notes_table WHERE deleted_at = 0 ORDER BY "
+                             + orderBy, null)) {
+            int[] ids = new int[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getInt(0);
+            }
+            return ids;
+        }
+    }
+}
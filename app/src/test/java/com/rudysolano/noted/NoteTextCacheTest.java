@@ -0,0 +1,107 @@
+package com.rudysolano.noted;
+
+import android.os.Looper;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.widget.TextView;
+
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Checks that {@link NoteTextCache} reuses formatted text until a note changes, that prefetched
+ * notes are measured in the background, and that scrolling back and forth over rows that were
+ * already bound formats nothing again.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NoteTextCacheTest {
+
+    //Rows visible on a screen, and number of times they are bound again
+    private static final int ROW_COUNT = 40;
+    private static final int SCROLL_PASSES = 100;
+
+    private final NoteTextCache cache =
+            new NoteTextCache(ApplicationProvider.getApplicationContext());
+
+    @Test
+    public void get_reusesTextUntilVersionChanges() {
+        NotePreview note = note(7, "I need to #buy new t-shirts", "buy", 1);
+        CharSequence text = cache.get(note);
+
+        assertTrue(text instanceof SpannedString);
+        assertSame(text, cache.get(note));
+        assertNotSame(text, cache.get(note(7, "I need to #buy socks", "buy", 2)));
+
+        //Every entry shares the same span instance.
+        Spanned first = (Spanned) cache.get(note(1, "#one", "one", 1));
+        Spanned second = (Spanned) cache.get(note(2, "#two", "two", 1));
+        assertSame(first.getSpans(0, first.length(), Object.class)[0],
+                second.getSpans(0, second.length(), Object.class)[0]);
+    }
+
+    @Test
+    public void get_marksTruncatedPreviews() {
+        CharSequence text = cache.get(new NotePreview(9, "long", 1, "A #long note", true));
+
+        assertEquals("A #long note…", text.toString());
+    }
+
+    @Test
+    public void prefetch_cachesPrecomputedText() throws InterruptedException {
+        TextView textView = new TextView(ApplicationProvider.getApplicationContext());
+        cache.setTextMetricsParams(TextViewCompat.getTextMetricsParams(textView));
+        NotePreview note = note(3, "A long note about #groceries", "groceries", 1);
+
+        cache.prefetch(note);
+
+        //Wait for the background thread to post the result to the main thread.
+        CharSequence text = null;
+        for (int i = 0; i < 500 && !(text instanceof PrecomputedTextCompat); i++) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+            text = cache.get(note);
+        }
+
+        assertTrue(text instanceof PrecomputedTextCompat);
+        assertEquals(note.getDisplayText(), text.toString());
+        cache.bind(textView, note);
+        assertEquals(note.getDisplayText(), textView.getText().toString());
+    }
+
+    @Test
+    public void get_scrollingCachedRows_reusesTheirText() {
+        NotePreview[] notes = new NotePreview[ROW_COUNT];
+        CharSequence[] texts = new CharSequence[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            notes[i] = note(i + 1, "Note " + i + " about #topic" + i, "topic" + i, 1);
+            texts[i] = cache.get(notes[i]);
+        }
+
+        for (int pass = 0; pass < SCROLL_PASSES; pass++) {
+            for (int i = 0; i < ROW_COUNT; i++) {
+                assertSame(texts[i], cache.get(notes[i]));
+            }
+        }
+
+        //Only the first bind of each row formatted its text.
+        assertEquals(ROW_COUNT, cache.getMissCount());
+        assertEquals(ROW_COUNT * SCROLL_PASSES, cache.getHitCount());
+    }
+
+    private static NotePreview note(int id, String noteText, String tag, int version) {
+        return new NotePreview(id, tag, version, noteText, false);
+    }
+}
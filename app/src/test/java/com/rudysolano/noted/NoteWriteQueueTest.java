@@ -0,0 +1,118 @@
+package com.rudysolano.noted;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.reactivex.Completable;
+import io.reactivex.Single;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Checks that {@link NoteWriteQueue} commits writes made in quick succession together,
+ * coalesces the writes to the same note, and gives each delete of a batch its own deleted_at.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NoteWriteQueueTest {
+
+    private NotesDatabase database;
+    private NotesDao notesDao;
+    private NoteWriteQueue writeQueue;
+
+    @Before
+    public void createDatabase() {
+        database = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(),
+                NotesDatabase.class)
+                .addCallback(NotesDatabase.TRIGGERS_CALLBACK)
+                .allowMainThreadQueries()
+                .build();
+        notesDao = database.notesDao();
+        notesDao.insertNotesBlocking(Arrays.asList(new Note("Buy #milk", "milk"),
+                new Note("Buy #eggs", "eggs")));
+        writeQueue = new NoteWriteQueue(database);
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    @Test
+    public void writes_areCommittedInOneBatch() {
+        Completable.mergeArray(
+                writeQueue.insert(new Note("Buy #bread", "bread")),
+                writeQueue.update(note(1, "Buy #butter", "butter")),
+                writeQueue.update(note(2, "Buy #jam", "jam")))
+                .blockingAwait();
+
+        assertEquals(1, writeQueue.getBatchCount());
+        assertEquals(3, writeQueue.getWriteCount());
+
+        List<Note> notes = notesDao.getNotesById(new int[]{1, 2, 3});
+        assertEquals("Buy #butter", notes.get(0).getNoteText());
+        assertEquals("Buy #jam", notes.get(1).getNoteText());
+        assertEquals("Buy #bread", notes.get(2).getNoteText());
+    }
+
+    @Test
+    public void writesToSameNote_areCoalesced() {
+        Completable.mergeArray(
+                writeQueue.update(note(1, "Buy #butter", "butter")),
+                writeQueue.update(note(1, "Buy #cheese", "cheese")),
+                writeQueue.update(note(2, "Buy #jam", "jam")),
+                writeQueue.delete(new long[]{2}).ignoreElement(),
+                writeQueue.update(note(2, "Buy #honey", "honey")))
+                .blockingAwait();
+
+        List<Note> notes = notesDao.getNotesById(new int[]{1, 2});
+        assertEquals(1, notes.size());
+        assertEquals("Buy #cheese", notes.get(0).getNoteText());
+        //Only the last update was written.
+        assertEquals(2, notes.get(0).getVersion());
+    }
+
+    @Test
+    public void deletesInOneBatch_areUndoneSeparately() {
+        List<Long> deletedAts = Single.merge(Arrays.asList(
+                writeQueue.delete(new long[]{1}),
+                writeQueue.delete(new long[]{2})))
+                .toList()
+                .blockingGet();
+
+        assertEquals(1, writeQueue.getBatchCount());
+        assertNotEquals(deletedAts.get(0), deletedAts.get(1));
+
+        notesDao.restoreNotes(deletedAts.get(1)).blockingAwait();
+
+        List<Note> notes = notesDao.getNotesById(new int[]{1, 2});
+        assertEquals(1, notes.size());
+        assertEquals(2, notes.get(0).getId());
+    }
+
+    @Test
+    public void flush_commitsQueuedWrites() {
+        writeQueue.update(note(1, "Buy #butter", "butter")).subscribe();
+        writeQueue.flush().blockingAwait();
+
+        assertEquals("Buy #butter", notesDao.getNotesById(new int[]{1}).get(0).getNoteText());
+        assertEquals(1, writeQueue.getBatchCount());
+    }
+
+    private static Note note(int id, String text, String tag) {
+        Note note = new Note(text, tag);
+        note.setId(id);
+        return note;
+    }
+}
@@ -0,0 +1,82 @@
+package com.rudysolano.noted;
+
+import android.database.MatrixCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that notes written by {@link NotesBackup} are read back unchanged, whatever characters
+ * they hold, and that null text and tags stay null.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NotesBackupTest {
+
+    private static final String[] COLUMNS = {"id", "tag", "note_text", "updated_at", "version"};
+
+    @Test
+    public void roundTrip_keepsQuotesAndControlCharacters() throws IOException {
+        String text = "She said \"#buy\" \\ then\n\tleft\r\u0001\u001f end";
+
+        List<Note> notes = roundTrip(new Object[]{1, "buy", text, 0, 1});
+
+        assertEquals(text, notes.get(0).getNoteText());
+        assertEquals("buy", notes.get(0).getTag());
+    }
+
+    @Test
+    public void roundTrip_keepsSurrogatePairsAndReplacesUnpairedSurrogates() throws IOException {
+        List<Note> notes = roundTrip(new Object[]{1, "fun", "Party \ud83c\udf89 #fun", 0, 1},
+                new Object[]{2, "cut", "Cut \ud83c here, \udf89 there #cut", 0, 1});
+
+        assertEquals("Party \ud83c\udf89 #fun", notes.get(0).getNoteText());
+        assertEquals("Cut \ufffd here, \ufffd there #cut", notes.get(1).getNoteText());
+    }
+
+    @Test
+    public void roundTrip_keepsNulls() throws IOException {
+        List<Note> notes = roundTrip(new Object[]{1, null, null, 0, 1},
+                new Object[]{2, "null", "null", 0, 1});
+
+        assertNull(notes.get(0).getNoteText());
+        assertNull(notes.get(0).getTag());
+        //Only JSON null is read as null, not the string "null".
+        assertEquals("null", notes.get(1).getNoteText());
+        assertEquals("null", notes.get(1).getTag());
+    }
+
+    /**
+     * Writes the provided rows to a backup, and returns the notes read back from it.
+     */
+    private static List<Note> roundTrip(Object[]... rows) throws IOException {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(rows.length, NotesBackup.write(cursor, Channels.newChannel(output)));
+
+        List<Note> notes = new ArrayList<>();
+        Iterator<Note> iterator = NotesBackup.read(
+                Channels.newChannel(new ByteArrayInputStream(output.toByteArray())));
+        while (iterator.hasNext()) {
+            notes.add(iterator.next());
+        }
+        assertEquals(rows.length, notes.size());
+        return notes;
+    }
+}
@@ -0,0 +1,343 @@
+package com.rudysolano.noted;
+
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link NotesDao} keeps the version and updated_at of notes up to date on write,
+ * that unchanged notes are not written again, that upserts update existing ids, that imports are
+ * committed one chunk at a time, that list previews are cut by the query, that a note keeps a
+ * single draft, that bulk deletes remove exactly the notes they describe, that deletes can be
+ * undone until they are purged and are journaled as their own changes, and that search only finds
+ * notes that are not deleted.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NotesDaoTest {
+
+    private NotesDatabase database;
+    private NotesDao notesDao;
+
+    @Before
+    public void createDatabase() {
+        database = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(),
+                NotesDatabase.class)
+                .addCallback(NotesDatabase.TRIGGERS_CALLBACK)
+                .allowMainThreadQueries()
+                .build();
+        notesDao = database.notesDao();
+        notesDao.insertNotesBlocking(Arrays.asList(new Note("Buy #milk", "milk"),
+                new Note("Buy #eggs", "eggs")));
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    @Test
+    public void update_changesVersionOnlyWhenContentChanges() {
+        Note inserted = getNote(1);
+        assertEquals(1, inserted.getVersion());
+
+        notesDao.updateNotesBlocking(Collections.singletonList(note(1, "Buy #milk", "milk")));
+        assertEquals(1, getNote(1).getVersion());
+        assertEquals(inserted.getUpdatedAt(), getNote(1).getUpdatedAt());
+
+        notesDao.updateNotesBlocking(Collections.singletonList(note(1, "Buy #bread", "bread")));
+        Note updated = getNote(1);
+        assertEquals(2, updated.getVersion());
+        assertTrue(updated.getUpdatedAt() > inserted.getUpdatedAt());
+        assertEquals(Collections.singletonList(updated.getId()), noteIdsWithTag("bread"));
+    }
+
+    @Test
+    public void update_unchangedContentIsNotWritten() {
+        long lastSeq = notesDao.getLastChangeSeq();
+
+        notesDao.updateNotesBlocking(Arrays.asList(note(1, "Buy #milk", "milk"),
+                note(2, "Buy #eggs", "eggs")));
+
+        //Nothing was journaled, so the full-text index was not rewritten either.
+        assertTrue(notesDao.getChangesAfter(lastSeq, 10).isEmpty());
+        assertEquals(1, tagCount("milk"));
+        assertEquals(Collections.singletonList(1), searchIds("milk"));
+    }
+
+    @Test
+    public void insert_writesNotesAndTagsInOneTransaction() {
+        notesDao.insertNotesBlocking(Arrays.asList(new Note("Buy #tea and #milk", "tea"),
+                new Note("Buy #tea", "tea")));
+
+        Note first = getNote(3);
+        Note second = getNote(4);
+        assertEquals(1, first.getVersion());
+        assertEquals(first.getUpdatedAt(), second.getUpdatedAt());
+        assertEquals(Arrays.asList(3, 4), noteIdsWithTag("tea"));
+        assertEquals(2, tagCount("milk"));
+        assertEquals(2, tagCount("tea"));
+    }
+
+    @Test
+    public void upsert_updatesExistingIdsAndInsertsNewOnes() {
+        notesDao.upsertNotesBlocking(Arrays.asList(note(1, "Buy #bread", "bread"),
+                note(2, "Buy #eggs", "eggs"), note(7, "Buy #tea", "tea")));
+
+        Note updated = getNote(1);
+        assertEquals("Buy #bread", updated.getNoteText());
+        assertEquals(2, updated.getVersion());
+        //An existing note whose content did not change is left as it is.
+        assertEquals(1, getNote(2).getVersion());
+        assertEquals("Buy #tea", getNote(7).getNoteText());
+        assertEquals(1, getNote(7).getVersion());
+        assertEquals(0, tagCount("milk"));
+        assertEquals(1, tagCount("bread"));
+        assertEquals(1, tagCount("eggs"));
+        assertEquals(1, tagCount("tea"));
+    }
+
+    @Test
+    public void import_commitsOneChunkAtATime() {
+        assertEquals(6, notesDao.importNotesBlocking(notes(6).iterator(), 3));
+        assertEquals(7, notesDao.importNotesBlocking(notes(7).iterator(), 3));
+        assertEquals(1, notesDao.importNotesBlocking(notes(1).iterator(), 3));
+        assertEquals(0, notesDao.importNotesBlocking(notes(0).iterator(), 3));
+        assertEquals(6 + 7 + 1, tagCount("bulk"));
+    }
+
+    @Test
+    public void import_keepsChunksCommittedBeforeAFailure() {
+        Iterator<Note> notes = notes(5).iterator();
+        Iterator<Note> failingNotes = new Iterator<Note>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Note next() {
+                if (!notes.hasNext()) {
+                    throw new NotesBackup.BackupFormatException(new IOException("Truncated"));
+                }
+                return notes.next();
+            }
+        };
+
+        try {
+            notesDao.importNotesBlocking(failingNotes, 3);
+            fail();
+        } catch (NotesBackup.BackupFormatException expected) {
+            //The first chunk was committed, the second one was not.
+            assertEquals(3, tagCount("bulk"));
+        }
+    }
+
+    @Test
+    public void changedBetween_returnsNotesWrittenAfterCheckpoint() {
+        long checkpoint = notesDao.getLastUpdatedAt();
+
+        notesDao.updateNotesBlocking(Collections.singletonList(note(2, "Buy #bread", "bread")));
+        notesDao.insertNotesBlocking(Collections.singletonList(new Note("Buy #tea", "tea")));
+
+        try (Cursor cursor = notesDao.getNotesCursorChangedBetween(checkpoint,
+                notesDao.getLastUpdatedAt())) {
+            int idColumn = cursor.getColumnIndexOrThrow("id");
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(2, cursor.getInt(idColumn));
+            cursor.moveToNext();
+            assertEquals(3, cursor.getInt(idColumn));
+        }
+    }
+
+    @Test
+    public void previews_onlyHoldStartOfText() {
+        StringBuilder longText = new StringBuilder("A long #note ");
+        while (longText.length() <= NotePreview.PREVIEW_LENGTH) {
+            longText.append("and more text ");
+        }
+        notesDao.insertNotesBlocking(Collections.singletonList(
+                new Note(longText.toString(), "note")));
+
+        List<NotePreview> previews = notesDao.getNotePreviewsById(new int[]{1, 3});
+        assertEquals("Buy #milk", previews.get(0).getPreview());
+        assertFalse(previews.get(0).isTruncated());
+        assertEquals(longText.substring(0, NotePreview.PREVIEW_LENGTH),
+                previews.get(1).getPreview());
+        assertTrue(previews.get(1).isTruncated());
+        assertEquals(longText.toString(),
+                notesDao.getNoteById(3).blockingGet().getNoteText());
+    }
+
+    @Test
+    public void drafts_areReplacedAndDeleted() {
+        notesDao.saveDraft(new NoteDraft(1, "Buy #milk and", 1));
+        notesDao.saveDraft(new NoteDraft(1, "Buy #milk and #bread", 2));
+        notesDao.saveDraft(new NoteDraft(NoteDraft.NEW_NOTE_ID, "A new #note", 3));
+
+        assertEquals("Buy #milk and #bread", notesDao.getDraft(1).blockingGet().getText());
+        //Drafts do not change the notes they belong to.
+        assertEquals("Buy #milk", getNote(1).getNoteText());
+
+        notesDao.deleteDraft(1);
+        assertTrue(notesDao.getDraft(1).isEmpty().blockingGet());
+        assertEquals("A new #note",
+                notesDao.getDraft(NoteDraft.NEW_NOTE_ID).blockingGet().getText());
+    }
+
+    @Test
+    public void deleteById_deletesMoreIdsThanOneStatementCanBind() {
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < NotesDao.DELETE_CHUNK_SIZE * 3; i++) {
+            notes.add(new Note("Note " + i + " #bulk", "bulk"));
+        }
+        notesDao.insertNotesBlocking(notes);
+
+        long[] ids = new long[NotesDao.DELETE_CHUNK_SIZE * 3 - 1];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = i + 3;
+        }
+        notesDao.deleteNotesByIdBlocking(ids);
+
+        assertEquals(Arrays.asList(1, 2, NotesDao.DELETE_CHUNK_SIZE * 3 + 2),
+                noteIds(notesDao.getNotesById(new int[]{1, 2, 3, 4,
+                        NotesDao.DELETE_CHUNK_SIZE * 3 + 2})));
+        assertTrue(noteIdsWithTag("milk").contains(1));
+    }
+
+    @Test
+    public void deleteExcept_onlyDeletesNotesMatchingFilter() {
+        notesDao.insertNotesBlocking(Arrays.asList(new Note("Buy #milk again", "milk"),
+                new Note("Buy #milkshake", "milkshake"), new Note("Buy #milk twice", "milk")));
+        NotesQuerySpec spec = new NotesQuerySpec(NotesViewModel.SORT_ID_ASC)
+                .withTagFilter("milk", false);
+
+        notesDao.deleteNotesExceptBlocking(spec, new long[]{3});
+
+        assertEquals(Collections.singletonList(3), noteIdsWithTag("milk"));
+        assertEquals(Collections.singletonList(4), noteIdsWithTag("milkshake"));
+        assertEquals(Collections.singletonList(2), noteIdsWithTag("eggs"));
+    }
+
+    @Test
+    public void restore_bringsBackOnlyNotesOfThatDelete() {
+        long firstDelete = notesDao.deleteNotesByIdBlocking(new long[]{1});
+        long secondDelete = notesDao.deleteNotesByIdBlocking(new long[]{2});
+        assertTrue(secondDelete > firstDelete);
+        assertEquals(0, tagCount("milk"));
+
+        notesDao.restoreNotes(firstDelete).blockingAwait();
+
+        assertEquals(Collections.singletonList(1), noteIds(notesDao.getNotesById(new int[]{1, 2})));
+        assertEquals(1, tagCount("milk"));
+        assertEquals(0, tagCount("eggs"));
+    }
+
+    @Test
+    public void purge_removesOnlyNotesDeletedBeforeTheUndoWindow() {
+        long deletedAt = notesDao.deleteNotesByIdBlocking(new long[]{1});
+
+        assertEquals(0, notesDao.purgeDeletedNotesBlocking(deletedAt - 1));
+        assertEquals(1, notesDao.purgeDeletedNotesBlocking(deletedAt));
+
+        //A purged note can no longer be restored, and its tags were not counted down twice.
+        notesDao.restoreNotes(deletedAt).blockingAwait();
+        assertTrue(notesDao.getNotesById(new int[]{1}).isEmpty());
+        assertEquals(0, tagCount("milk"));
+        assertEquals(1, tagCount("eggs"));
+    }
+
+    @Test
+    public void journal_recordsDeletesAndRestoresAsTheirOwnChanges() {
+        long lastSeq = notesDao.getLastChangeSeq();
+
+        long deletedAt = notesDao.deleteNotesByIdBlocking(new long[]{1});
+        notesDao.restoreNotes(deletedAt).blockingAwait();
+
+        List<NoteChange> changes = notesDao.getChangesAfter(lastSeq, 10);
+        assertEquals(2, changes.size());
+        assertEquals(NoteChange.OP_DELETE, changes.get(0).getOp());
+        assertEquals(NoteChange.OP_RESTORE, changes.get(1).getOp());
+        //The text did not change, so the restored note is still in the full-text index.
+        assertEquals(Collections.singletonList(1), searchIds("milk"));
+    }
+
+    @Test
+    public void search_matchesPrefixesOfLiveNotes() {
+        notesDao.insertNotesBlocking(
+                Collections.singletonList(new Note("Make #crêpes", "crêpes")));
+
+        assertEquals(Collections.singletonList(1), searchIds("MIL"));
+        assertEquals(Collections.singletonList(3), searchIds("crêp"));
+
+        notesDao.deleteNotesByIdBlocking(new long[]{1});
+        assertTrue(searchIds("milk").isEmpty());
+    }
+
+    private Note getNote(int id) {
+        return notesDao.getNotesById(new int[]{id}).get(0);
+    }
+
+    private List<Integer> searchIds(String text) {
+        List<Integer> ids = new ArrayList<>();
+        for (NoteSearchResult result :
+                notesDao.search(ProcessTextUtils.toFtsQuery(text)).blockingGet()) {
+            ids.add(result.getNoteId());
+        }
+        return ids;
+    }
+
+    private int tagCount(String tag) {
+        try (Cursor cursor = database.query("SELECT note_count FROM tag_counts WHERE tag = ?",
+                new Object[]{tag})) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    private List<Integer> noteIdsWithTag(String tag) {
+        return noteIds(notesDao.getNotesWithTag(tag).blockingGet());
+    }
+
+    private static List<Note> notes(int count) {
+        List<Note> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            notes.add(new Note("Note " + i + " #bulk", "bulk"));
+        }
+        return notes;
+    }
+
+    private static List<Integer> noteIds(List<Note> notes) {
+        List<Integer> ids = new ArrayList<>();
+        for (Note note : notes) {
+            ids.add(note.getId());
+        }
+        return ids;
+    }
+
+    private static Note note(int id, String noteText, String tag) {
+        Note note = new Note(noteText, tag);
+        note.setId(id);
+        return note;
+    }
+}
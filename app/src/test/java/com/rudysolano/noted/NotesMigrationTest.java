@@ -0,0 +1,352 @@
+package com.rudysolano.noted;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import androidx.room.Room;
+import androidx.room.testing.MigrationTestHelper;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs every migration on its own, and then all of {@link NotesDatabase#MIGRATIONS} starting from
+ * the first version of the database, and validates the results against the schemas exported to
+ * app/schemas. Also checks that a migrated database keeps the full-text update triggers that
+ * {@link NotesDatabase#TRIGGERS_CALLBACK} puts in place of Room's, each time it is opened.
+ *
+ * Version 1 was released before schemas were exported, so the test creates it with the same SQL
+ * Room used at the time instead of using {@link MigrationTestHelper#createDatabase}. The tests of
+ * a single migration are skipped until the schemas of both of its versions have been exported.
+ * The migration of a large database is only run when the noted.largeMigrationTest system
+ * property is set.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NotesMigrationTest {
+
+    private static final String TEST_DB = "migration-test";
+    private static final int LATEST_VERSION = 10;
+    //Number of notes used to check the migrations on a large database
+    private static final int LARGE_NOTE_COUNT = 100_000;
+
+    @Rule
+    public MigrationTestHelper helper = new MigrationTestHelper(
+            InstrumentationRegistry.getInstrumentation(),
+            NotesDatabase.class.getCanonicalName());
+
+    private File databaseFile;
+
+    @Before
+    public void deleteOldDatabase() {
+        databaseFile = InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getDatabasePath(TEST_DB);
+        databaseFile.getParentFile().mkdirs();
+        SQLiteDatabase.deleteDatabase(databaseFile);
+    }
+
+    @Test
+    public void migrateAll_keepsNotes() {
+        assumeSchemasExported(LATEST_VERSION);
+        createVersion1Database(3);
+
+        SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, LATEST_VERSION, true,
+                NotesDatabase.MIGRATIONS);
+
+        assertEquals(3, count(db, "SELECT COUNT(*) FROM notes_table"));
+        //Existing notes were added to the full-text index.
+        assertEquals(1, count(db,
+                "SELECT COUNT(*) FROM notes_fts WHERE notes_fts MATCH 'note2'"));
+        //The content hash of existing notes was computed.
+        assertEquals(Note.computeContentHash("This is #note2 of the migration test", "note2"),
+                count(db, "SELECT content_hash FROM notes_table WHERE tag = 'note2'"));
+        //Existing tags were copied to note_tags.
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM note_tags WHERE tag = 'note2'"));
+        //Tag counts were computed, and are kept up to date by the triggers.
+        assertEquals(1, count(db,
+                "SELECT note_count FROM tag_counts WHERE tag = 'note2'"));
+        db.execSQL("INSERT INTO notes_table (note_text, tag) VALUES ('More #note2', 'note2')");
+        db.execSQL("INSERT INTO note_tags (note_id, tag) VALUES (last_insert_rowid(), 'note2')");
+        assertEquals(2, count(db,
+                "SELECT note_count FROM tag_counts WHERE tag = 'note2'"));
+        db.execSQL("DELETE FROM note_tags WHERE tag = 'note2'");
+        assertEquals(0, count(db, "SELECT COUNT(*) FROM tag_counts WHERE tag = 'note2'"));
+        //Notes written after the migration are recorded in the change journal.
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM note_changes WHERE op = "
+                + NoteChange.OP_INSERT));
+    }
+
+    @Test
+    public void migrateAll_largeDatabase() {
+        assumeTrue(Boolean.getBoolean("noted.largeMigrationTest"));
+        assumeSchemasExported(LATEST_VERSION);
+        createVersion1Database(LARGE_NOTE_COUNT);
+
+        SupportSQLiteDatabase db = helper.runMigrationsAndValidate(TEST_DB, LATEST_VERSION, true,
+                NotesDatabase.MIGRATIONS);
+
+        assertEquals(LARGE_NOTE_COUNT, count(db, "SELECT COUNT(*) FROM notes_table"));
+    }
+
+    @Test
+    public void openMigrated_keepsTextUpdateTriggers() {
+        createVersion1Database(3);
+
+        //Room recreates its own full-text triggers while migrating, and the callback replaces
+        //them again every time the database is opened.
+        for (int open = 0; open < 2; open++) {
+            NotesDatabase database = Room.databaseBuilder(
+                    InstrumentationRegistry.getInstrumentation().getTargetContext(),
+                    NotesDatabase.class, TEST_DB)
+                    .addCallback(NotesDatabase.TRIGGERS_CALLBACK)
+                    .addMigrations(NotesDatabase.MIGRATIONS)
+                    .allowMainThreadQueries()
+                    .build();
+            SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+
+            assertNull(triggerSql(db, "room_fts_content_sync_notes_fts_BEFORE_UPDATE"));
+            assertNull(triggerSql(db, "room_fts_content_sync_notes_fts_AFTER_UPDATE"));
+            assertTrue(triggerSql(db, "notes_fts_before_text_update")
+                    .contains("UPDATE OF `note_text`"));
+            assertTrue(triggerSql(db, "notes_fts_after_text_update")
+                    .contains("UPDATE OF `note_text`"));
+            //Text updates are still indexed.
+            db.execSQL("UPDATE notes_table SET note_text = 'Renamed #note" + open
+                    + "' WHERE tag = 'note1'");
+            assertEquals(1, count(db,
+                    "SELECT COUNT(*) FROM notes_fts WHERE notes_fts MATCH 'renamed'"));
+
+            database.close();
+        }
+    }
+
+    @Test
+    public void migrate1To2_indexesExistingNotes() {
+        assumeSchemasExported(1, 2);
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 1);
+        insertNote(db, "Buy #milk", "milk");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 2, true, NotesDatabase.MIGRATION_1_2);
+
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM notes_fts WHERE notes_fts MATCH 'buy'"));
+        //Notes written after the migration are indexed by the triggers.
+        insertNote(db, "Buy #eggs", "eggs");
+        assertEquals(2, count(db, "SELECT COUNT(*) FROM notes_fts WHERE notes_fts MATCH 'buy'"));
+    }
+
+    @Test
+    public void migrate2To3_keepsNotes() {
+        assumeSchemasExported(2, 3);
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 2);
+        insertNote(db, "Buy #milk", "milk");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 3, true, NotesDatabase.MIGRATION_2_3);
+
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM notes_table WHERE tag = 'milk'"));
+    }
+
+    @Test
+    public void migrate3To4_copiesTags() {
+        assumeSchemasExported(3, 4);
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 3);
+        insertNote(db, "Buy #milk", "milk");
+        insertNote(db, "More #milk", "milk");
+        insertNote(db, "No tag", "");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 4, true, NotesDatabase.MIGRATION_3_4);
+
+        assertEquals(2, count(db, "SELECT COUNT(*) FROM note_tags WHERE tag = 'milk'"));
+        assertEquals(2, count(db, "SELECT COUNT(*) FROM note_tags"));
+    }
+
+    @Test
+    public void migrate4To5_countsTags() {
+        assumeSchemasExported(4, 5);
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 4);
+        insertNote(db, "Buy #milk", "milk");
+        db.execSQL("INSERT INTO note_tags (note_id, tag) VALUES (last_insert_rowid(), 'milk')");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 5, true, NotesDatabase.MIGRATION_4_5);
+
+        assertEquals(1, count(db, "SELECT note_count FROM tag_counts WHERE tag = 'milk'"));
+        insertNote(db, "More #milk", "milk");
+        db.execSQL("INSERT INTO note_tags (note_id, tag) VALUES (last_insert_rowid(), 'milk')");
+        assertEquals(2, count(db, "SELECT note_count FROM tag_counts WHERE tag = 'milk'"));
+        db.execSQL("DELETE FROM note_tags");
+        assertEquals(0, count(db, "SELECT COUNT(*) FROM tag_counts"));
+    }
+
+    @Test
+    public void migrate5To6_journalsNewChanges() {
+        assumeSchemasExported(5, 6);
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 5);
+        insertNote(db, "Buy #milk", "milk");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 6, true, NotesDatabase.MIGRATION_5_6);
+
+        //The journal starts empty.
+        assertEquals(0, count(db, "SELECT COUNT(*) FROM note_changes"));
+        insertNote(db, "Buy #eggs", "eggs");
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM note_changes WHERE op = "
+                + NoteChange.OP_INSERT));
+    }
+
+    @Test
+    public void migrate6To7_computesContentHashes() {
+        assumeSchemasExported(6, 7);
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 6);
+        insertNote(db, "Buy #milk", "milk");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 7, true, NotesDatabase.MIGRATION_6_7);
+
+        assertEquals(Note.computeContentHash("Buy #milk", "milk"),
+                count(db, "SELECT content_hash FROM notes_table WHERE tag = 'milk'"));
+        //Filling in the hashes is not journaled, but later updates are, and are indexed.
+        assertEquals(0, count(db, "SELECT COUNT(*) FROM note_changes"));
+        db.execSQL("UPDATE notes_table SET note_text = 'Buy oat #milk' WHERE tag = 'milk'");
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM note_changes WHERE op = "
+                + NoteChange.OP_UPDATE));
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM notes_fts WHERE notes_fts MATCH 'oat'"));
+    }
+
+    @Test
+    public void migrate7To8_startsNotesAtVersion1() {
+        assumeSchemasExported(7, 8);
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 7);
+        insertNote(db, "Buy #milk", "milk");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 8, true, NotesDatabase.MIGRATION_7_8);
+
+        assertEquals(1, count(db, "SELECT version FROM notes_table WHERE tag = 'milk'"));
+        assertEquals(0, count(db, "SELECT updated_at FROM notes_table WHERE tag = 'milk'"));
+    }
+
+    @Test
+    public void migrate8To9_addsDrafts() {
+        assumeSchemasExported(8, 9);
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 8);
+        insertNote(db, "Buy #milk", "milk");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 9, true, NotesDatabase.MIGRATION_8_9);
+
+        db.execSQL("INSERT INTO note_drafts (note_id, text, updated_at) VALUES (1, 'Buy', 0)");
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM note_drafts"));
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM notes_table"));
+    }
+
+    @Test
+    public void migrate9To10_keepsNotesLive() {
+        assumeSchemasExported(9, 10);
+        SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 9);
+        insertNote(db, "Buy #milk", "milk");
+        db.execSQL("INSERT INTO note_tags (note_id, tag) VALUES (last_insert_rowid(), 'milk')");
+        db.execSQL("INSERT INTO tag_counts (tag, note_count) VALUES ('milk', 1)");
+        db.close();
+
+        db = helper.runMigrationsAndValidate(TEST_DB, 10, true, NotesDatabase.MIGRATION_9_10);
+
+        assertEquals(0, count(db, "SELECT deleted_at FROM notes_table WHERE tag = 'milk'"));
+        //The tags of a deleted note are no longer counted, and are counted again on restore.
+        db.execSQL("UPDATE notes_table SET deleted_at = 5 WHERE tag = 'milk'");
+        assertEquals(0, count(db, "SELECT COUNT(*) FROM tag_counts"));
+        db.execSQL("UPDATE notes_table SET deleted_at = 0 WHERE tag = 'milk'");
+        assertEquals(1, count(db, "SELECT note_count FROM tag_counts WHERE tag = 'milk'"));
+        //Both are journaled as their own changes, not as updates.
+        assertEquals(0, count(db, "SELECT COUNT(*) FROM note_changes WHERE op = "
+                + NoteChange.OP_UPDATE));
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM note_changes WHERE op = "
+                + NoteChange.OP_DELETE));
+        assertEquals(1, count(db, "SELECT COUNT(*) FROM note_changes WHERE op = "
+                + NoteChange.OP_RESTORE));
+    }
+
+    /**
+     * Creates the test database with the version 1 schema, and fills it with the provided number
+     * of notes.
+     */
+    private void createVersion1Database(int noteCount) {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(databaseFile, null);
+
+        db.execSQL("CREATE TABLE IF NOT EXISTS `notes_table` (`id` INTEGER PRIMARY KEY " +
+                "AUTOINCREMENT NOT NULL, `note_text` TEXT, `tag` TEXT)");
+
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO notes_table (note_text, tag) VALUES (?, ?)");
+            for (int i = 1; i <= noteCount; i++) {
+                insert.bindString(1, "This is #note" + i + " of the migration test");
+                insert.bindString(2, "note" + i);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        db.setVersion(1);
+        db.close();
+    }
+
+    /**
+     * Skips the test unless the schemas of the provided versions have been exported to
+     * app/schemas.
+     */
+    private static void assumeSchemasExported(int... versions) {
+        for (int version : versions) {
+            String path = NotesDatabase.class.getCanonicalName() + "/" + version + ".json";
+            try (InputStream ignored = InstrumentationRegistry.getInstrumentation().getContext()
+                    .getAssets().open(path)) {
+                //The schema exists
+            } catch (IOException e) {
+                assumeTrue("Schema " + version + " has not been exported", false);
+            }
+        }
+    }
+
+    private static void insertNote(SupportSQLiteDatabase db, String noteText, String tag) {
+        db.execSQL("INSERT INTO notes_table (note_text, tag) VALUES (?, ?)",
+                new Object[]{noteText, tag});
+    }
+
+    /**
+     * Returns the SQL of the trigger with the provided name, or null if it does not exist.
+     */
+    private static String triggerSql(SupportSQLiteDatabase db, String name) {
+        try (Cursor cursor = db.query("SELECT sql FROM sqlite_master WHERE type = 'trigger' "
+                + "AND name = ?", new Object[]{name})) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+
+    private static long count(SupportSQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.query(sql)) {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        }
+    }
+}
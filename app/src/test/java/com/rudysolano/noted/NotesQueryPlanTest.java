@@ -0,0 +1,116 @@
+package com.rudysolano.noted;
+
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteProgram;
+import androidx.sqlite.db.SupportSQLiteQuery;
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies with EXPLAIN QUERY PLAN that the queries used to load notes are answered from an
+ * index, without sorting the table into a temporary b-tree.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class NotesQueryPlanTest {
+
+    private NotesDatabase database;
+
+    @Before
+    public void createDatabase() {
+        database = Room.inMemoryDatabaseBuilder(ApplicationProvider.getApplicationContext(),
+                NotesDatabase.class)
+                .addCallback(NotesDatabase.TRIGGERS_CALLBACK)
+                .allowMainThreadQueries()
+                .build();
+    }
+
+    @After
+    public void closeDatabase() {
+        database.close();
+    }
+
+    @Test
+    public void sortKeyQuery_onlyReadsTagIndex() {
+        String plan = explain(NoteSortEngine.buildSortKeyQuery(
+                new NotesQuerySpec(NotesViewModel.SORT_ID_ASC), null));
+
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+        assertTrue(plan, plan.contains("COVERING INDEX index_notes_table_deleted_at_tag_id"));
+    }
+
+    @Test
+    public void filteredSortKeyQuery_usesTagIndex() {
+        for (boolean prefixMatch : new boolean[]{false, true}) {
+            String plan = explain(NoteSortEngine.buildSortKeyQuery(
+                    new NotesQuerySpec(NotesViewModel.SORT_ID_ASC)
+                            .withTagFilter("mil", prefixMatch), null));
+
+            //The filter is a lookup in the tag index, never a scan of note_tags.
+            assertTrue(plan, plan.contains("index_note_tags_tag_note_id"));
+            assertFalse(plan, plan.contains("SCAN TABLE note_tags"));
+        }
+    }
+
+    @Test
+    public void changedSortKeyQuery_usesPrimaryKey() {
+        String plan = explain(NoteSortEngine.buildSortKeyQuery(
+                new NotesQuerySpec(NotesViewModel.SORT_ID_ASC), new int[]{1, 2, 3}));
+
+        assertFalse(plan, plan.contains("SCAN TABLE notes_table"));
+    }
+
+    @Test
+    public void notesByIdQuery_usesPrimaryKey() {
+        String plan = explain(new SimpleSQLiteQuery(
+                "SELECT * FROM notes_table WHERE id IN (1, 2, 3) ORDER BY id ASC"));
+
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+        assertFalse(plan, plan.contains("SCAN TABLE notes_table"));
+    }
+
+    /**
+     * Runs EXPLAIN QUERY PLAN for the provided query, and returns the plan details, one row per
+     * line.
+     */
+    private String explain(SupportSQLiteQuery query) {
+        SupportSQLiteQuery explainQuery = new SupportSQLiteQuery() {
+            @Override
+            public String getSql() {
+                return "EXPLAIN QUERY PLAN " + query.getSql();
+            }
+
+            @Override
+            public void bindTo(SupportSQLiteProgram statement) {
+                query.bindTo(statement);
+            }
+
+            @Override
+            public int getArgCount() {
+                return query.getArgCount();
+            }
+        };
+
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = database.query(explainQuery)) {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailColumn)).append('\n');
+            }
+        }
+
+        return plan.toString();
+    }
+}
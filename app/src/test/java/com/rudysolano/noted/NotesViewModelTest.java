@@ -0,0 +1,72 @@
+package com.rudysolano.noted;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the search pipeline of {@link NotesViewModel} waits for a pause in typing, skips
+ * repeated queries, and keeps searching after a search fails.
+ */
+public class NotesViewModelTest {
+
+    private final TestScheduler scheduler = new TestScheduler();
+    private final PublishSubject<String> queries = PublishSubject.create();
+    private final List<String> searchedQueries = new ArrayList<>();
+    private final List<Note> milkNotes = Collections.singletonList(new Note("Buy #milk", "milk"));
+    private TestObserver<List<Note>> results;
+
+    @Before
+    public void subscribe() {
+        results = NotesViewModel.searchResults(queries, query -> {
+            searchedQueries.add(query);
+            return query.equals("bad") ? Single.error(new IllegalArgumentException(query))
+                    : Single.just(milkNotes);
+        }, scheduler).test();
+    }
+
+    @Test
+    public void search_waitsForPauseInTyping() {
+        queries.onNext("m");
+        scheduler.advanceTimeBy(NotesViewModel.SEARCH_DEBOUNCE_MS / 2, TimeUnit.MILLISECONDS);
+        queries.onNext("mi");
+        scheduler.advanceTimeBy(NotesViewModel.SEARCH_DEBOUNCE_MS / 2, TimeUnit.MILLISECONDS);
+        queries.onNext("milk");
+        scheduler.advanceTimeBy(NotesViewModel.SEARCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+
+        assertEquals(Collections.singletonList("milk"), searchedQueries);
+        results.assertValues(milkNotes);
+    }
+
+    @Test
+    public void search_skipsRepeatedQueries() {
+        queries.onNext("milk");
+        scheduler.advanceTimeBy(NotesViewModel.SEARCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        queries.onNext("milk ");
+        scheduler.advanceTimeBy(NotesViewModel.SEARCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+
+        assertEquals(Collections.singletonList("milk"), searchedQueries);
+    }
+
+    @Test
+    public void search_continuesAfterFailedSearch() {
+        queries.onNext("bad");
+        scheduler.advanceTimeBy(NotesViewModel.SEARCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+        queries.onNext("milk");
+        scheduler.advanceTimeBy(NotesViewModel.SEARCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+
+        results.assertNoErrors();
+        results.assertValues(Collections.emptyList(), milkNotes);
+    }
+}
@@ -0,0 +1,35 @@
+package com.rudysolano.noted;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link ProcessTextUtils#toFtsQuery(String)} splits and folds words the same way as
+ * the FTS4 "simple" tokenizer, and never produces query operators.
+ */
+public class ProcessTextUtilsTest {
+
+    @Test
+    public void toFtsQuery_makesEveryWordAPrefix() {
+        assertEquals("buy* milk*", ProcessTextUtils.toFtsQuery("Buy milk"));
+        assertEquals("buy* milk*", ProcessTextUtils.toFtsQuery("  #buy,  milk! "));
+        assertEquals("", ProcessTextUtils.toFtsQuery(" ,;# "));
+    }
+
+    @Test
+    public void toFtsQuery_neverProducesOperators() {
+        assertEquals("milk* or* eggs*", ProcessTextUtils.toFtsQuery("milk OR eggs"));
+        assertEquals("milk* not* eggs*", ProcessTextUtils.toFtsQuery("milk -\"NOT\" eggs*"));
+        assertEquals("milk* near* 2* eggs*", ProcessTextUtils.toFtsQuery("milk NEAR/2 eggs"));
+    }
+
+    @Test
+    public void toFtsQuery_onlyFoldsAscii() {
+        //The tokenizer keeps every character from U+0080 up in words, and does not fold them.
+        assertEquals("crÊpes* café*", ProcessTextUtils.toFtsQuery("CRÊPES café"));
+        assertEquals("don’t*", ProcessTextUtils.toFtsQuery("don’t"));
+        //An ASCII apostrophe separates words.
+        assertEquals("don* t*", ProcessTextUtils.toFtsQuery("don't"));
+    }
+}